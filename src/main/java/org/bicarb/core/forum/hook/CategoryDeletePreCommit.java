@@ -24,6 +24,8 @@ import java.util.Optional;
 import org.bicarb.core.forum.domain.Category;
 import org.bicarb.core.forum.repository.CategoryRepository;
 import org.bicarb.core.forum.repository.TopicRepository;
+import org.bicarb.core.forum.search.PostIndexQueue;
+import org.bicarb.core.forum.search.SearchIndexGeneration;
 import org.illyasviel.elide.spring.boot.annotation.ElideHook;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -37,17 +39,24 @@ public class CategoryDeletePreCommit implements LifeCycleHook<Category> {
 
   private final CategoryRepository categoryRepository;
   private final TopicRepository topicRepository;
+  private final PostIndexQueue postIndexQueue;
 
+  /** Constructor. */
   @Autowired
   public CategoryDeletePreCommit(
       CategoryRepository categoryRepository,
-      TopicRepository topicRepository) {
+      TopicRepository topicRepository,
+      PostIndexQueue postIndexQueue) {
     this.categoryRepository = categoryRepository;
     this.topicRepository = topicRepository;
+    this.postIndexQueue = postIndexQueue;
   }
 
   @Override
   public void execute(Category category, RequestScope requestScope, Optional<ChangeSpec> optional) {
+    // reindex posts of the category and its descendants, they are filtered by category
+    SearchIndexGeneration.increase();
+    postIndexQueue.enqueueTopicsAfterCommit(topicRepository.findIdsByCategoryId(category.getId()));
     // manual delete relations
     categoryRepository.removeRelationsByCategoryId(category.getId());
     topicRepository.invalidateAllTopic();
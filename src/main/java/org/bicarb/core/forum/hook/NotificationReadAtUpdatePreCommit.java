@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.hook;
+
+import com.yahoo.elide.annotation.OnUpdatePreCommit;
+import com.yahoo.elide.functions.LifeCycleHook;
+import com.yahoo.elide.security.ChangeSpec;
+import com.yahoo.elide.security.RequestScope;
+import java.util.Optional;
+import org.bicarb.core.forum.domain.Notification;
+import org.bicarb.core.forum.notification.UnreadCounter;
+import org.illyasviel.elide.spring.boot.annotation.ElideHook;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * NotificationReadAtUpdatePreCommit, keep unread counter in step with readAt.
+ *
+ * @author olOwOlo
+ */
+@ElideHook(lifeCycle = OnUpdatePreCommit.class, fieldOrMethodName = "readAt")
+public class NotificationReadAtUpdatePreCommit implements LifeCycleHook<Notification> {
+
+  private final UnreadCounter unreadCounter;
+
+  @Autowired
+  public NotificationReadAtUpdatePreCommit(UnreadCounter unreadCounter) {
+    this.unreadCounter = unreadCounter;
+  }
+
+  @Override
+  public void execute(Notification notification, RequestScope requestScope,
+      Optional<ChangeSpec> changes) {
+    boolean wasRead = changes.map(ChangeSpec::getOriginal).isPresent();
+    boolean isRead = notification.getReadAt() != null;
+    if (wasRead != isRead) {
+      unreadCounter.add(notification.getTo().getId(), isRead ? -1 : 1);
+    }
+  }
+}
@@ -22,16 +22,11 @@ import com.yahoo.elide.security.ChangeSpec;
 import com.yahoo.elide.security.RequestScope;
 import java.time.Instant;
 import java.util.Optional;
-import org.bicarb.core.forum.domain.Notification;
-import org.bicarb.core.forum.domain.Notification.NotificationType;
 import org.bicarb.core.forum.domain.Post;
 import org.bicarb.core.forum.domain.Topic;
 import org.bicarb.core.forum.domain.User;
-import org.bicarb.core.forum.repository.NotificationRepository;
 import org.bicarb.core.forum.service.PostService;
 import org.illyasviel.elide.spring.boot.annotation.ElideHook;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
@@ -42,45 +37,26 @@ import org.springframework.beans.factory.annotation.Autowired;
 @ElideHook(lifeCycle = OnCreatePreCommit.class)
 public class PostCreatePreCommit implements LifeCycleHook<Post> {
 
-  private static final Logger logger = LoggerFactory.getLogger(PostCreatePreCommit.class);
-
   private final PostService postService;
-  private final NotificationRepository notificationRepository;
 
   @Autowired
-  public PostCreatePreCommit(
-      PostService postService,
-      NotificationRepository notificationRepository) {
+  public PostCreatePreCommit(PostService postService) {
     this.postService = postService;
-    this.notificationRepository = notificationRepository;
   }
 
   @Override
   public void execute(Post post, RequestScope requestScope, Optional<ChangeSpec> changes) {
-    postService.handleCreateMention(post);
+    // reply & mentions
+    postService.handleCreateNotification(post);
 
     User author = post.getAuthor();
     Topic topic = post.getTopic();
 
-    // other reply
-    if (!topic.getAuthor().equals(author)) {
-      Notification notification = Notification.builder()
-          .type(NotificationType.REPLY)
-          .send(post.getAuthor())
-          .to(topic.getAuthor())
-          .post(post)
-          .topic(post.getTopic())
-          .createAt(Instant.now())
-          .build();
-      notificationRepository.save(notification);
-      logger.info("user [{}] mention [{}] in post [{}]",
-          author.getUsername(), topic.getAuthor().getUsername(), post.getId());
-    }
-
     // TODO handle reply to
 
     // set count
     author.setPostCount(author.getPostCount() + 1);
+    // already updated by TopicService#allocatePostIndex, keep entity and cache in step
     topic.setPostIndex(post.getIndex());
     // set last reply
     topic.setLastReplyBy(author);
@@ -26,7 +26,8 @@ import javax.servlet.http.HttpServletRequest;
 import org.bicarb.core.forum.domain.Post;
 import org.bicarb.core.forum.domain.User;
 import org.bicarb.core.forum.repository.UserRepository;
-import org.bicarb.core.system.bean.Renderer;
+import org.bicarb.core.forum.service.PostService;
+import org.bicarb.core.forum.service.TopicService;
 import org.bicarb.core.system.util.AuthenticationUtils;
 import org.bicarb.core.system.validation.Validators;
 import org.illyasviel.elide.spring.boot.annotation.ElideHook;
@@ -46,20 +47,23 @@ public class PostCreatePreSecurity implements LifeCycleHook<Post> {
 
   private final Validators validators;
   private final UserRepository userRepository;
+  private final TopicService topicService;
   private final HttpServletRequest request;
-  private final Renderer renderer;
+  private final PostService postService;
 
   /** Constructor. */
   @Autowired
   public PostCreatePreSecurity(
       Validators validators,
       UserRepository userRepository,
+      TopicService topicService,
       HttpServletRequest request,
-      Renderer renderer) {
+      PostService postService) {
     this.validators = validators;
     this.userRepository = userRepository;
+    this.topicService = topicService;
     this.request = request;
-    this.renderer = renderer;
+    this.postService = postService;
   }
 
   @Override
@@ -70,11 +74,8 @@ public class PostCreatePreSecurity implements LifeCycleHook<Post> {
     User author = userRepository.getOne(AuthenticationUtils.fetchUserId(requestScope));
     post.setAuthor(author);
 
-    // set index
-    post.setIndex(post.getTopic().getPostIndex() + 1);
-
     // cook
-    post.setCooked(renderer.renderPost(post.getRaw()));
+    postService.cook(post, false);
 
     // ip
     post.setIp(request.getRemoteAddr());
@@ -83,6 +84,9 @@ public class PostCreatePreSecurity implements LifeCycleHook<Post> {
     post.setDelete(false);
     post.setCreateAt(Instant.now());
 
+    // set index, last step, it locks the topic row until commit
+    post.setIndex(topicService.allocatePostIndex(post.getTopic().getId()));
+
     logger.debug("prepare post: {}", post);
   }
 }
@@ -24,7 +24,6 @@ import java.time.Instant;
 import java.util.Optional;
 import org.bicarb.core.forum.domain.Post;
 import org.bicarb.core.forum.service.PostService;
-import org.bicarb.core.system.bean.Renderer;
 import org.illyasviel.elide.spring.boot.annotation.ElideHook;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -36,22 +35,16 @@ import org.springframework.beans.factory.annotation.Autowired;
 @ElideHook(lifeCycle = OnUpdatePreCommit.class, fieldOrMethodName = "raw")
 public class PostRawUpdatePreCommit implements LifeCycleHook<Post> {
 
-  private final Renderer renderer;
   private final PostService postService;
 
   @Autowired
-  public PostRawUpdatePreCommit(Renderer renderer, PostService postService) {
-    this.renderer = renderer;
+  public PostRawUpdatePreCommit(PostService postService) {
     this.postService = postService;
   }
 
   @Override
   public void execute(Post post, RequestScope requestScope, Optional<ChangeSpec> changes) {
-    if (post.getIndex() == 0) {
-      post.setCooked(renderer.renderTopic(post.getRaw()));
-    } else {
-      post.setCooked(renderer.renderPost(post.getRaw()));
-    }
+    postService.cook(post, post.getIndex() == 0);
     post.setLastEditAt(Instant.now());
     postService.handleUpdateMention(post, ((String) changes.get().getOriginal()));
   }
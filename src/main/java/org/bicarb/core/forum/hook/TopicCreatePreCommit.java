@@ -28,7 +28,6 @@ import org.bicarb.core.forum.domain.Topic;
 import org.bicarb.core.forum.domain.User;
 import org.bicarb.core.forum.repository.PostRepository;
 import org.bicarb.core.forum.service.PostService;
-import org.bicarb.core.system.bean.Renderer;
 import org.illyasviel.elide.spring.boot.annotation.ElideHook;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -42,7 +41,6 @@ public class TopicCreatePreCommit implements LifeCycleHook<Topic> {
 
   private final PostService postService;
   private final PostRepository postRepository;
-  private final Renderer renderer;
   private final HttpServletRequest request;
 
   /** Constructor. */
@@ -50,22 +48,16 @@ public class TopicCreatePreCommit implements LifeCycleHook<Topic> {
   public TopicCreatePreCommit(
       PostService postService,
       PostRepository postRepository,
-      Renderer renderer,
       HttpServletRequest request) {
     this.postService = postService;
     this.postRepository = postRepository;
-    this.renderer = renderer;
     this.request = request;
   }
 
   @Override
   public void execute(Topic topic, RequestScope requestScope, Optional<ChangeSpec> changes) {
-    // generate body
-    String cooked = renderer.renderTopic(topic.getBody());
-
     Post post = Post.builder()
         .raw(topic.getBody())
-        .cooked(cooked)
         .topic(topic)
         .author(topic.getAuthor())
         .index(0)
@@ -75,9 +67,12 @@ public class TopicCreatePreCommit implements LifeCycleHook<Topic> {
         .createAt(Instant.now())
         .build();
 
+    // generate body
+    postService.cook(post, true);
+
     postRepository.save(post);
 
-    postService.handleCreateMention(post);
+    postService.handleCreateNotification(post);
 
     // handle count
     User author = topic.getAuthor();
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.notification;
+
+import io.swagger.annotations.ApiOperation;
+import java.io.IOException;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Map;
+import org.bicarb.core.forum.service.NotificationService;
+import org.bicarb.core.system.util.AuthenticationUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * NotificationController.
+ *
+ * @author olOwOlo
+ */
+@RequestMapping("/api")
+@RestController
+public class NotificationController {
+
+  private final NotificationPush notificationPush;
+  private final UnreadCounter unreadCounter;
+  private final NotificationService notificationService;
+
+  /** Constructor. */
+  @Autowired
+  public NotificationController(NotificationPush notificationPush, UnreadCounter unreadCounter,
+      NotificationService notificationService) {
+    this.notificationPush = notificationPush;
+    this.unreadCounter = unreadCounter;
+    this.notificationService = notificationService;
+  }
+
+  @ApiOperation(value = "Unread notification count of current user",
+      notes = "maintained counter, e.g. for the badge, no count over notifications")
+  @PreAuthorize("isAuthenticated()")
+  @GetMapping(value = "/notification/unread", produces = MediaType.APPLICATION_JSON_VALUE)
+  public Map<String, Integer> unread(Principal authentication) {
+    return Collections.singletonMap("unread",
+        unreadCounter.get(AuthenticationUtils.fetchUserId(authentication)));
+  }
+
+  /**
+   * Mark all, or up to an id, or of a topic, as read.
+   */
+  @ApiOperation(value = "Mark notifications of current user as read",
+      notes = "update Notification n set n.readAt = now() where n.to = :current"
+          + " [and n.id <= :upToId] [and n.topic = :topicId] and n.readAt is null")
+  @PreAuthorize("isAuthenticated()")
+  @PatchMapping(value = "/notification/read", produces = MediaType.APPLICATION_JSON_VALUE)
+  public Map<String, Integer> markRead(
+      @RequestParam(required = false) Integer upToId,
+      @RequestParam(required = false) Integer topicId,
+      Principal authentication) {
+    return Collections.singletonMap("marked", notificationService
+        .markRead(AuthenticationUtils.fetchUserId(authentication), upToId, topicId));
+  }
+
+  /**
+   * Server-sent events of new notifications.
+   */
+  @ApiOperation(value = "Stream new notifications of current user",
+      notes = "server-sent events named 'notification', resume from Last-Event-ID header "
+          + "or lastId param, heartbeat comments keep the stream open; if too many were "
+          + "missed, a 'resync' event instead, then reload and resume from the newest id; "
+          + "events may repeat on resume, drop ids already seen")
+  @PreAuthorize("isAuthenticated()")
+  @GetMapping(value = "/notification/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter stream(
+      @RequestHeader(value = "Last-Event-ID", required = false) Integer lastEventId,
+      @RequestParam(required = false) Integer lastId,
+      Principal authentication) throws IOException {
+    return notificationPush.subscribe(AuthenticationUtils.fetchUserId(authentication),
+        lastEventId != null ? lastEventId : lastId);
+  }
+}
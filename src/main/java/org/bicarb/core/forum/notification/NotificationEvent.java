@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.notification;
+
+import java.time.Instant;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.bicarb.core.forum.domain.Notification.NotificationType;
+
+/**
+ * Pushed notification, id is also the resume cursor.
+ *
+ * @author olOwOlo
+ */
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class NotificationEvent {
+
+  private Integer id;
+  private Integer to;
+  private NotificationType type;
+  private Integer sendId;
+  private String sendUsername;
+  private Integer postId;
+  private Integer topicId;
+  private Instant createAt;
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.notification;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.bicarb.core.forum.domain.Notification;
+import org.bicarb.core.forum.repository.NotificationRepository;
+import org.bicarb.core.system.bean.ListenNotify;
+import org.bicarb.core.system.config.NotificationProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Push notifications to subscribed users over server-sent events.
+ *
+ * <p>Events are published with postgres NOTIFY in the creating transaction, so they are
+ * delivered on commit only and in commit order, every node LISTENs and sends to its own
+ * streams. Live sends run on dedicated threads, in order per user.
+ *
+ * <p>Ids are allocated in blocks and committed out of order, so a client never resumes by
+ * "id greater than its last id". Each subscribed user has a bounded queue of recent
+ * notifications in commit order, replayed after the position of the last id. If the queue
+ * does not reach back that far, notifications created since `resume-overlap` before the
+ * last one are replayed from database, the client drops ids it has seen. If more than
+ * `max-replay` are missed, a `resync` event is sent instead, then the client reloads.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class NotificationPush {
+
+  private static final Logger logger = LoggerFactory.getLogger(NotificationPush.class);
+
+  private static final String EVENT_NAME = "notification";
+  private static final String RESYNC_EVENT_NAME = "resync";
+  private static final String CHANNEL = "bicarb_notification";
+
+  private final NotificationRepository notificationRepository;
+  private final ListenNotify listenNotify;
+  private final ObjectMapper objectMapper;
+  private final NotificationProperties.Push properties;
+  private final Cache<Integer, Channel> channels;
+
+  private ExecutorService sendExecutor;
+
+  /** Constructor. */
+  @Autowired
+  public NotificationPush(NotificationRepository notificationRepository,
+      ListenNotify listenNotify, ObjectMapper objectMapper,
+      NotificationProperties notificationProperties) {
+    this.notificationRepository = notificationRepository;
+    this.listenNotify = listenNotify;
+    this.objectMapper = objectMapper;
+    this.properties = notificationProperties.getPush();
+    this.channels = CacheBuilder.newBuilder()
+        .maximumSize(properties.getMaxUsers())
+        .expireAfterAccess(properties.getQueueTtl())
+        .<Integer, Channel>removalListener(notification -> {
+          if (notification.getCause() != RemovalCause.REPLACED) {
+            notification.getValue().emitters.forEach(SseEmitter::complete);
+          }
+        })
+        .build();
+  }
+
+  @PostConstruct
+  void start() {
+    sendExecutor = Executors.newFixedThreadPool(properties.getSendThreads(),
+        new ThreadFactoryBuilder().setNameFormat("notification-push-%d").setDaemon(true).build());
+    // null after a reconnect, missed events are replayed when clients resume
+    listenNotify.subscribe(CHANNEL, payload -> {
+      if (payload != null) {
+        publish(parse(payload));
+      }
+    });
+  }
+
+  @PreDestroy
+  void stop() {
+    sendExecutor.shutdown();
+  }
+
+  /**
+   * Open a stream for user.
+   * @param userId subscriber
+   * @param lastId last notification id the client has seen, null for live only
+   * @return emitter, completed by timeout, then the client should reconnect with last id
+   */
+  public SseEmitter subscribe(Integer userId, @Nullable Integer lastId) throws IOException {
+    Channel channel;
+    try {
+      channel = channels.get(userId, () -> new Channel(sendExecutor));
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e);
+    }
+    SseEmitter emitter = new SseEmitter(properties.getTimeout().toMillis());
+    Runnable remove = () -> channel.emitters.remove(emitter);
+    emitter.onCompletion(remove);
+    emitter.onTimeout(remove);
+    emitter.onError(e -> remove.run());
+
+    // load out of the lock, publishing to every user of this node waits for the lock
+    List<NotificationEvent> loaded = null;
+    boolean covered;
+    synchronized (channel) {
+      covered = lastId == null || channel.covers(lastId);
+    }
+    if (!covered) {
+      loaded = load(userId, lastId);
+    }
+
+    // under lock, events published meanwhile are sent after the replay, no gap;
+    // the replay is buffered by the emitter until it is returned, so it never blocks
+    synchronized (channel) {
+      if (lastId != null) {
+        List<NotificationEvent> replay;
+        if (channel.covers(lastId)) {
+          replay = channel.after(lastId);
+        } else {
+          // rarely, the queue moved past the last id meanwhile
+          replay = loaded != null ? loaded : load(userId, lastId);
+          Set<Integer> ids = new HashSet<>();
+          replay.forEach(event -> ids.add(event.getId()));
+          for (NotificationEvent event : channel.queue) {
+            // published while loading
+            if (!event.getId().equals(lastId) && ids.add(event.getId())) {
+              replay.add(event);
+            }
+          }
+        }
+        if (replay.size() > properties.getMaxReplay()) {
+          emitter.send(SseEmitter.event().name(RESYNC_EVENT_NAME).data(lastId));
+        } else {
+          for (NotificationEvent event : replay) {
+            emitter.send(toSse(event));
+          }
+        }
+      }
+      if (channel.emitters.size() >= properties.getMaxStreams()) {
+        channel.emitters.remove(0).complete();
+      }
+      channel.emitters.add(emitter);
+    }
+    return emitter;
+  }
+
+  /**
+   * Publish to all nodes in the current transaction, delivered when it commits,
+   * so rolled back notifications are never sent.
+   */
+  public void publishOnCommit(Collection<NotificationEvent> events) {
+    List<String> payloads = new ArrayList<>(events.size());
+    for (NotificationEvent event : events) {
+      try {
+        payloads.add(objectMapper.writeValueAsString(event));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    listenNotify.notifyOnCommit(CHANNEL, payloads);
+  }
+
+  /**
+   * Queue and send to subscribed users of this node, users without a queue are skipped.
+   */
+  public void publish(Collection<NotificationEvent> events) {
+    for (NotificationEvent event : events) {
+      Channel channel = channels.getIfPresent(event.getTo());
+      if (channel == null) {
+        continue;
+      }
+      synchronized (channel) {
+        channel.offer(event, properties.getQueueSize());
+        // streams at publish time, later ones get it replayed from the queue
+        List<SseEmitter> emitters = new ArrayList<>(channel.emitters);
+        channel.sender.execute(() -> emitters.forEach(e -> send(channel, e, toSse(event))));
+      }
+    }
+  }
+
+  /**
+   * Heartbeat comment, which also keeps queues of connected users alive.
+   */
+  @Scheduled(fixedDelayString = "${bicarb.notification.push.heartbeat}")
+  public void heartbeat() {
+    for (Map.Entry<Integer, Channel> entry : channels.asMap().entrySet()) {
+      Channel channel = entry.getValue();
+      if (channel.emitters.isEmpty()) {
+        continue;
+      }
+      channels.getIfPresent(entry.getKey());
+      channel.sender.execute(() -> channel.emitters
+          .forEach(e -> send(channel, e, SseEmitter.event().comment("heartbeat"))));
+    }
+  }
+
+  public int getStreamCount() {
+    return channels.asMap().values().stream().mapToInt(c -> c.emitters.size()).sum();
+  }
+
+  private void send(Channel channel, SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+    try {
+      emitter.send(event);
+    } catch (IOException | IllegalStateException e) {
+      // client gone, it resumes with its last id
+      logger.debug("Drop notification stream: {}", e.getMessage());
+      channel.emitters.remove(emitter);
+      emitter.completeWithError(e);
+    }
+  }
+
+  /**
+   * Notifications of user created since `resume-overlap` before the last id,
+   * or all of them if the last id is gone, ordered by create time.
+   * @return up to `max-replay` + 1, beyond that they are not sent anyway
+   */
+  private List<NotificationEvent> load(Integer userId, Integer lastId) {
+    Instant from = notificationRepository.findById(lastId)
+        .map(last -> last.getCreateAt().minus(properties.getResumeOverlap()))
+        .orElse(Instant.EPOCH);
+    List<NotificationEvent> events = new ArrayList<>();
+    notificationRepository.findByToIdAndCreateAtGreaterThanEqualAndIdNot(userId, from, lastId,
+        PageRequest.of(0, properties.getMaxReplay() + 1, Sort.by("createAt", "id")))
+        .forEach(notification -> events.add(toEvent(notification)));
+    return events;
+  }
+
+  private List<NotificationEvent> parse(String payload) {
+    try {
+      List<NotificationEvent> events = new ArrayList<>(1);
+      events.add(objectMapper.readValue(payload, NotificationEvent.class));
+      return events;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static SseEmitter.SseEventBuilder toSse(NotificationEvent event) {
+    return SseEmitter.event()
+        .id(String.valueOf(event.getId()))
+        .name(EVENT_NAME)
+        .data(event, MediaType.APPLICATION_JSON);
+  }
+
+  private static NotificationEvent toEvent(Notification notification) {
+    return NotificationEvent.builder()
+        .id(notification.getId())
+        .to(notification.getTo().getId())
+        .type(notification.getType())
+        .sendId(notification.getSend().getId())
+        .sendUsername(notification.getSend().getUsername())
+        .postId(notification.getPost().getId())
+        .topicId(notification.getTopic().getId())
+        .createAt(notification.getCreateAt())
+        .build();
+  }
+
+  /**
+   * Queue and streams of one user, guarded by itself.
+   * Sends are run by its sender, one at a time and in order.
+   */
+  private static class Channel {
+
+    private final Deque<NotificationEvent> queue = new ArrayDeque<>();
+    private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+    private final Executor sender;
+
+    private Channel(Executor executor) {
+      this.sender = MoreExecutors.newSequentialExecutor(executor);
+    }
+
+    /**
+     * True if lastId is still queued, so is every event committed after it.
+     */
+    private boolean covers(Integer lastId) {
+      return queue.stream().anyMatch(event -> event.getId().equals(lastId));
+    }
+
+    /**
+     * Events queued after lastId, in commit order.
+     */
+    private List<NotificationEvent> after(Integer lastId) {
+      List<NotificationEvent> events = new ArrayList<>();
+      boolean found = false;
+      for (NotificationEvent event : queue) {
+        if (found) {
+          events.add(event);
+        }
+        found |= event.getId().equals(lastId);
+      }
+      return events;
+    }
+
+    private void offer(NotificationEvent event, int queueSize) {
+      if (queue.size() >= queueSize) {
+        queue.pollFirst();
+      }
+      queue.offerLast(event);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.notification;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import org.bicarb.core.system.config.NotificationProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Retention of the notifications table, old read notifications are deleted in chunks,
+ * one short transaction each, so the table and its indexes stay small.
+ * Unread notifications are kept, they are still counted by the badge.
+ * Chunks are found by the partial index on create_at of read notifications.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class NotificationRetention {
+
+  private static final Logger logger = LoggerFactory.getLogger(NotificationRetention.class);
+
+  private static final String PURGE_SQL = "delete from notifications where id in"
+      + " (select id from notifications where read_at is not null and create_at < ? limit ?)";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final NotificationProperties.Retention properties;
+
+  /** Constructor. */
+  @Autowired
+  public NotificationRetention(JdbcTemplate jdbcTemplate,
+      NotificationProperties notificationProperties) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.properties = notificationProperties.getRetention();
+  }
+
+  /**
+   * Delete read notifications created before the retention, chunk by chunk.
+   */
+  @Scheduled(fixedDelayString = "${bicarb.notification.retention.interval}")
+  public void run() {
+    if (!properties.isEnabled()) {
+      return;
+    }
+    Timestamp before = Timestamp.from(Instant.now().minus(properties.getRead()));
+    long total = 0;
+    int deleted;
+    do {
+      deleted = jdbcTemplate.update(PURGE_SQL, before, properties.getChunkSize());
+      total += deleted;
+    } while (deleted >= properties.getChunkSize());
+    if (total > 0) {
+      logger.info("Purged {} read notifications created before {}.", total, before);
+    }
+  }
+}
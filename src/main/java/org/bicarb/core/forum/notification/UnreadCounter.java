@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.notification;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Unread notification count per user, kept in `notification_counters`,
+ * so the badge is a primary key lookup instead of a count over notifications.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class UnreadCounter {
+
+  private static final Logger logger = LoggerFactory.getLogger(UnreadCounter.class);
+
+  private static final String SELECT_SQL =
+      "select unread from notification_counters where user_id = ?";
+  private static final String INCREMENT_SQL = "insert into notification_counters (user_id, unread)"
+      + " values (?, greatest(?, 0)) on conflict (user_id)"
+      + " do update set unread = greatest(notification_counters.unread + ?, 0)";
+  private static final String DRIFTED_SQL = "select coalesce(c.user_id, n.to_id)"
+      + " from notification_counters c full join"
+      + " (select to_id, count(*) unread from notifications where read_at is null group by to_id) n"
+      + " on n.to_id = c.user_id where coalesce(c.unread, 0) <> coalesce(n.unread, 0)";
+  private static final String ENSURE_SQL = "insert into notification_counters (user_id, unread)"
+      + " values (?, 0) on conflict (user_id) do nothing";
+  private static final String LOCK_SQL =
+      "select unread from notification_counters where user_id = ? for update";
+  private static final String RECOUNT_SQL = "update notification_counters set unread ="
+      + " (select count(*) from notifications where to_id = ? and read_at is null)"
+      + " where user_id = ? and unread <>"
+      + " (select count(*) from notifications where to_id = ? and read_at is null)";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+
+  /** Constructor. */
+  @Autowired
+  public UnreadCounter(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+  }
+
+  /**
+   * Unread notifications of user.
+   */
+  public int get(Integer userId) {
+    List<Integer> unread = jdbcTemplate.queryForList(SELECT_SQL, Integer.class, userId);
+    return unread.isEmpty() ? 0 : unread.get(0);
+  }
+
+  /**
+   * Add deltas in the current transaction, ordered by user id to avoid deadlock.
+   * @param deltas user id to delta, negative to decrease, never below 0
+   */
+  public void add(Map<Integer, Integer> deltas) {
+    SortedMap<Integer, Integer> sorted = new TreeMap<>(deltas);
+    jdbcTemplate.batchUpdate(INCREMENT_SQL, sorted.entrySet().stream()
+        .map(e -> new Object[] {e.getKey(), e.getValue(), e.getValue()})
+        .collect(Collectors.toList()));
+  }
+
+  public void add(Integer userId, int delta) {
+    jdbcTemplate.update(INCREMENT_SQL, userId, delta, delta);
+  }
+
+  /**
+   * Recount from notifications, fix counters drifted by direct database edits or lost updates.
+   * Only unread notifications are read, by the partial index.
+   * Drifted users are recounted one by one under the counter row lock, which every writer
+   * also holds until commit, so a concurrent change is either counted or applied after.
+   */
+  @Scheduled(fixedDelayString = "${bicarb.notification.unread-reconcile-interval}")
+  public void reconcile() {
+    int fixed = 0;
+    for (Integer userId : jdbcTemplate.queryForList(DRIFTED_SQL, Integer.class)) {
+      Integer updated = transactionTemplate.execute(status -> {
+        jdbcTemplate.update(ENSURE_SQL, userId);
+        jdbcTemplate.queryForList(LOCK_SQL, Integer.class, userId);
+        // a new statement, counts changes committed before the lock was granted
+        return jdbcTemplate.update(RECOUNT_SQL, userId, userId, userId);
+      });
+      fixed += updated == null ? 0 : updated;
+    }
+    if (fixed > 0) {
+      logger.warn("Reconciled {} unread notification counters.", fixed);
+    }
+  }
+}
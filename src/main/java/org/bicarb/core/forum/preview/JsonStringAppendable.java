@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.preview;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import java.io.IOException;
+
+/**
+ * Escape appended text as the content of a json string, without the quotes.
+ *
+ * @author olOwOlo
+ */
+final class JsonStringAppendable implements Appendable {
+
+  private final Appendable out;
+  private final StringBuilder escaped = new StringBuilder();
+
+  JsonStringAppendable(Appendable out) {
+    this.out = out;
+  }
+
+  @Override
+  public Appendable append(CharSequence csq) throws IOException {
+    JsonStringEncoder.getInstance().quoteAsString(csq, escaped);
+    out.append(escaped);
+    escaped.setLength(0);
+    return this;
+  }
+
+  @Override
+  public Appendable append(CharSequence csq, int start, int end) throws IOException {
+    return append(csq.subSequence(start, end));
+  }
+
+  @Override
+  public Appendable append(char c) throws IOException {
+    return append(String.valueOf(c));
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.preview;
+
+import java.io.IOException;
+import java.util.function.UnaryOperator;
+
+/**
+ * Buffer appended text by line, pass every complete line through a filter to out.
+ * Rendered html is line oriented, so memory is bounded by the longest line.
+ *
+ * @author olOwOlo
+ */
+final class LineFilterAppendable implements Appendable {
+
+  private final Appendable out;
+  private final UnaryOperator<String> filter;
+  private final StringBuilder line = new StringBuilder();
+
+  LineFilterAppendable(Appendable out, UnaryOperator<String> filter) {
+    this.out = out;
+    this.filter = filter;
+  }
+
+  @Override
+  public Appendable append(CharSequence csq) throws IOException {
+    return append(csq, 0, csq.length());
+  }
+
+  @Override
+  public Appendable append(CharSequence csq, int start, int end) throws IOException {
+    for (int i = start; i < end; i++) {
+      append(csq.charAt(i));
+    }
+    return this;
+  }
+
+  @Override
+  public Appendable append(char c) throws IOException {
+    line.append(c);
+    if (c == '\n') {
+      flush();
+    }
+    return this;
+  }
+
+  /**
+   * Pass the last incomplete line.
+   */
+  void flush() throws IOException {
+    if (line.length() > 0) {
+      out.append(filter.apply(line.toString()));
+      line.setLength(0);
+    }
+  }
+}
@@ -16,12 +16,22 @@
 
 package org.bicarb.core.forum.preview;
 
+import io.swagger.annotations.ApiOperation;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
-import org.bicarb.core.forum.domain.Post;
 import org.bicarb.core.forum.service.PostService;
+import org.bicarb.core.system.bean.RenderCacheStats;
 import org.bicarb.core.system.bean.Renderer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -37,29 +47,46 @@ import org.springframework.web.bind.annotation.RestController;
 public class PreviewController {
 
   private final Renderer renderer;
+  private final PreviewRenderer previewRenderer;
   private final PostService postService;
 
+  /** Constructor. */
   @Autowired
-  public PreviewController(Renderer renderer, PostService postService) {
+  public PreviewController(
+      Renderer renderer,
+      PreviewRenderer previewRenderer,
+      PostService postService) {
     this.renderer = renderer;
+    this.previewRenderer = previewRenderer;
     this.postService = postService;
   }
 
   /**
    * [POST][/preview].
-   * Preview markdown render.
+   * Preview markdown render, html is streamed into the json body of the response.
    */
   @PostMapping(value = "/preview", produces = MediaType.APPLICATION_JSON_VALUE)
-  public PreviewDto preview(@RequestBody @Valid PreviewDto dto) {
+  public void preview(@RequestBody @Valid PreviewDto dto, HttpServletResponse response)
+      throws IOException {
+    response.setStatus(HttpStatus.OK.value());
+    response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+    Writer writer = new BufferedWriter(
+        new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
 
-    String cooked = dto.getTopicBody() == null || dto.getTopicBody().equals(false)
-        ? renderer.renderPost(dto.getBody())
-        : renderer.renderTopic(dto.getBody());
-
-    Post p = Post.builder().cooked(cooked).build();
-    postService.getMentionedList(p, null);
+    writer.write("{\"topicBody\":" + dto.getTopicBody() + ",\"body\":\"");
+    LineFilterAppendable body = new LineFilterAppendable(
+        new JsonStringAppendable(writer), postService::linkMentions);
+    previewRenderer.render(dto.getBody(), Boolean.TRUE.equals(dto.getTopicBody()), body);
+    body.flush();
+    writer.write("\"}");
+    writer.flush();
+  }
 
-    dto.setBody(p.getCooked());
-    return dto;
+  @ApiOperation(value = "Render cache statistics",
+      notes = "hits, misses, hit rate and evictions since startup")
+  @PreAuthorize("hasAuthority('admin')")
+  @GetMapping(value = "/preview/cache", produces = MediaType.APPLICATION_JSON_VALUE)
+  public RenderCacheStats renderCacheStats() {
+    return renderer.getCacheStats();
   }
 }
@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.preview;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.bicarb.core.system.bean.Renderer;
+import org.bicarb.core.system.config.RenderProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Incremental preview rendering.
+ * Long documents are split into top-level blocks at blank lines, each block is rendered
+ * through the content-hash cache of {@link Renderer}, so only edited blocks are parsed.
+ * Reference definitions are appended to every block. Footnote definitions are taken out of
+ * the blocks, references are renumbered document-wide and the footnote section is rendered
+ * once. Documents needing other global passes (admonitions, html blocks, duplicate header ids,
+ * footnotes in posts or in unusual layouts) are rendered as a whole.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class PreviewRenderer {
+
+  /**
+   * Admonition icons are rendered once at the document start, raw html blocks may span blank
+   * lines.
+   */
+  private static final Pattern GLOBAL = Pattern.compile(
+      "(?m:^ {0,3}(!!!|\\?\\?\\?))|<!--|<\\?|<!\\[CDATA\\[|<(?i:script|pre|style)[\\s>]");
+  private static final String FOOTNOTE_START = "[^";
+  private static final Pattern FOOTNOTE = Pattern.compile("^\\[\\^([^\\]\\s]+)\\]:");
+  private static final Pattern FOOTNOTE_REF = Pattern.compile(
+      "<sup id=\"fnref-(\\d+)(?:-\\d+)?\"><a class=\"footnote-ref\" href=\"#fn-\\1\">\\1</a></sup>");
+  private static final Pattern FOOTNOTE_MARKER = Pattern.compile(
+      "<li id=\"fn-(\\d+)\">\\s*<p>fn(\\d+)</p>");
+  private static final String FOOTNOTES_DIV = "<div class=\"footnotes\">";
+  private static final Pattern FENCE = Pattern.compile("^ {0,3}(`{3,}|~{3,})");
+  private static final Pattern LIST_ITEM = Pattern.compile("^([-+*]|\\d{1,9}[.)])(\\s|$)");
+  private static final Pattern REFERENCE = Pattern.compile("^ {0,3}\\[[^\\]]+\\]:\\s*\\S");
+  private static final Pattern ANCHOR_ID = Pattern.compile(
+      "<a href=\"#([^\"]*)\" id=\"\\1\" class=\"anchor-link\">");
+
+  private final Renderer renderer;
+  private final RenderProperties.Preview properties;
+
+  /** Constructor. */
+  @Autowired
+  public PreviewRenderer(Renderer renderer, RenderProperties renderProperties) {
+    this.renderer = renderer;
+    this.properties = renderProperties.getPreview();
+  }
+
+  /**
+   * Same html as {@link Renderer#renderTopic(String)} / {@link Renderer#renderPost(String)}.
+   */
+  public String render(String raw, boolean topic) {
+    StringBuilder cooked = new StringBuilder(raw.length() * 2);
+    try {
+      render(raw, topic, cooked);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return cooked.toString();
+  }
+
+  /**
+   * Render into out, blocks are appended one by one without joining them.
+   */
+  public void render(String raw, boolean topic, Appendable out) throws IOException {
+    List<String> blocks = raw.length() < properties.getIncrementalMinLength()
+        ? null
+        : renderBlocks(raw, topic);
+    if (blocks != null) {
+      for (String block : blocks) {
+        out.append(block);
+      }
+    } else if (topic) {
+      renderer.renderTopic(raw, out);
+    } else {
+      renderer.renderPost(raw, out);
+    }
+  }
+
+  /**
+   * Cooked blocks, or null if the document must be rendered as a whole.
+   */
+  private List<String> renderBlocks(String raw, boolean topic) {
+    Blocks blocks = split(raw, topic);
+    if (blocks == null || blocks.blocks.size() < 2) {
+      return null;
+    }
+    Function<String, String> render = topic ? renderer::renderTopic : renderer::renderPost;
+    List<String> cooked = new ArrayList<>(blocks.blocks.size() + 1);
+    Set<String> anchorIds = new HashSet<>();
+    List<List<String>> footnoteRefs = new ArrayList<>(blocks.blocks.size());
+    for (String block : blocks.blocks) {
+      List<String> labels = new ArrayList<>();
+      StringBuilder source = new StringBuilder(block).append('\n').append(blocks.references);
+      for (String label : blocks.footnotes.keySet()) {
+        if (block.contains(FOOTNOTE_START + label + "]")) {
+          // a marker definition, tells which label a block local number stands for
+          source.append("\n[^").append(label).append("]: fn").append(labels.size()).append('\n');
+          labels.add(label);
+        }
+      }
+      String html = render.apply(labels.isEmpty() && blocks.references.isEmpty()
+          ? block
+          : source.toString());
+      if (hasDuplicateAnchor(html, anchorIds)) {
+        return null;
+      }
+      List<String> refs = new ArrayList<>();
+      if (!labels.isEmpty()) {
+        html = takeFootnoteRefs(html, labels, refs);
+      }
+      footnoteRefs.add(refs);
+      cooked.add(html);
+    }
+    return renumberFootnotes(cooked, footnoteRefs, blocks, render);
+  }
+
+  /**
+   * Strip the footnote section of a block.
+   * @param refs receives the label of every footnote reference in the block, in order
+   */
+  private static String takeFootnoteRefs(String html, List<String> labels, List<String> refs) {
+    int section = html.lastIndexOf(FOOTNOTES_DIV);
+    if (section < 0) {
+      return html;
+    }
+    Map<String, String> localLabels = new HashMap<>();
+    Matcher marker = FOOTNOTE_MARKER.matcher(html).region(section, html.length());
+    while (marker.find()) {
+      localLabels.put(marker.group(1), labels.get(Integer.parseInt(marker.group(2))));
+    }
+    Matcher ref = FOOTNOTE_REF.matcher(html).region(0, section);
+    while (ref.find()) {
+      refs.add(localLabels.get(ref.group(1)));
+    }
+    return html.substring(0, section);
+  }
+
+  /**
+   * Footnotes are numbered in the order of their last reference, like flexmark does for the
+   * whole document, the section is rendered once from the referenced definitions.
+   * @return null if the section must be rendered with the whole document
+   */
+  private List<String> renumberFootnotes(List<String> cooked, List<List<String>> footnoteRefs,
+      Blocks blocks, Function<String, String> render) {
+    Map<String, Integer> lastRef = new HashMap<>();
+    Map<String, Integer> refCount = new HashMap<>();
+    int position = 0;
+    for (List<String> refs : footnoteRefs) {
+      for (String label : refs) {
+        lastRef.put(label, position++);
+        refCount.merge(label, 1, Integer::sum);
+      }
+    }
+    if (lastRef.isEmpty()) {
+      return cooked;
+    }
+    List<String> ordered = new ArrayList<>(lastRef.keySet());
+    ordered.sort(Comparator.comparing(lastRef::get));
+    Map<String, Integer> ordinals = new HashMap<>();
+    for (String label : ordered) {
+      ordinals.put(label, ordinals.size() + 1);
+    }
+
+    Map<String, Integer> seen = new HashMap<>();
+    for (int i = 0; i < cooked.size(); i++) {
+      List<String> refs = footnoteRefs.get(i);
+      if (refs.isEmpty()) {
+        continue;
+      }
+      Matcher matcher = FOOTNOTE_REF.matcher(cooked.get(i));
+      StringBuilder html = new StringBuilder(cooked.get(i).length());
+      for (String label : refs) {
+        matcher.find();
+        int ordinal = ordinals.get(label);
+        int occurrence = seen.merge(label, 1, Integer::sum) - 1;
+        matcher.appendReplacement(html, "<sup id=\"fnref-" + ordinal
+            + (occurrence == 0 ? "" : "-" + occurrence)
+            + "\"><a class=\"footnote-ref\" href=\"#fn-" + ordinal + "\">" + ordinal + "</a></sup>");
+      }
+      matcher.appendTail(html);
+      cooked.set(i, html.toString());
+    }
+
+    // every label referenced as often as in the document, in ordinal order
+    StringBuilder source = new StringBuilder();
+    for (String label : ordered) {
+      source.append((FOOTNOTE_START + label + "]").repeat(refCount.get(label)));
+    }
+    source.append("\n\n");
+    blocks.footnotes.forEach((label, definition) -> {
+      if (lastRef.containsKey(label)) {
+        source.append(definition).append('\n');
+      }
+    });
+    String html = render.apply(source.append(blocks.references).toString());
+    int section = html.lastIndexOf(FOOTNOTES_DIV);
+    if (section < 0 || ANCHOR_ID.matcher(html).find()) {
+      // header ids in definitions are numbered with the whole document
+      return null;
+    }
+    cooked.add(html.substring(section));
+    return cooked;
+  }
+
+  /**
+   * Split raw at blank lines followed by a line that can only start a new block.
+   * Footnote definitions at the start of a block are taken out with their indented content.
+   * @return null if the document needs a global pass
+   */
+  static Blocks split(String raw, boolean topic) {
+    if (GLOBAL.matcher(raw).find() || !topic && raw.contains(FOOTNOTE_START)) {
+      return null;
+    }
+    List<String> blocks = new ArrayList<>();
+    StringBuilder references = new StringBuilder();
+    Map<String, String> footnotes = new LinkedHashMap<>();
+    StringBuilder block = new StringBuilder();
+    String footnote = null;
+    String fence = null;
+    boolean blank = false;
+    for (String line : raw.split("\n", -1)) {
+      if (fence == null && blank && block.length() > 0
+          && (startsBlock(line) || footnote != null && endsFootnote(line))) {
+        addBlock(block.toString(), footnote, blocks, footnotes);
+        block.setLength(0);
+        footnote = null;
+      }
+      boolean first = block.length() == 0;
+      block.append(line).append('\n');
+
+      Matcher matcher;
+      if (fence != null) {
+        if (line.trim().startsWith(fence) && line.trim().replace(fence.charAt(0), ' ').isBlank()) {
+          fence = null;
+        }
+      } else if (first && (matcher = FOOTNOTE.matcher(line)).find()) {
+        footnote = matcher.group(1);
+        if (footnotes.containsKey(footnote) || line.indexOf(FOOTNOTE_START, 2) >= 0) {
+          return null;
+        }
+      } else if (footnote != null && !line.isBlank()
+          && (!line.startsWith("    ") && !line.startsWith("\t")
+          || line.contains(FOOTNOTE_START))) {
+        // lazy continuation, or a reference nested in a definition
+        return null;
+      } else if (FOOTNOTE.matcher(line.stripLeading()).find()) {
+        // a definition which does not start a block
+        return null;
+      } else if ((matcher = FENCE.matcher(line)).find()) {
+        fence = matcher.group(1);
+      } else if (REFERENCE.matcher(line).find()) {
+        references.append(line).append('\n');
+      } else if (line.contains("]:")) {
+        // nested or multi-line reference definition
+        return null;
+      }
+      blank = line.isBlank();
+    }
+    if (fence != null) {
+      // an unclosed fence swallows everything appended after it
+      return null;
+    }
+    addBlock(block.toString(), footnote, blocks, footnotes);
+    return new Blocks(blocks, references.toString(), footnotes);
+  }
+
+  /**
+   * Any unindented line ends a footnote definition, list items included.
+   */
+  private static boolean endsFootnote(String line) {
+    return !line.isEmpty() && !Character.isWhitespace(line.charAt(0));
+  }
+
+  private static void addBlock(String block, String footnote, List<String> blocks,
+      Map<String, String> footnotes) {
+    if (footnote == null) {
+      blocks.add(block);
+    } else {
+      footnotes.put(footnote, block);
+    }
+  }
+
+  private static boolean startsBlock(String line) {
+    return !line.isEmpty()
+        && !Character.isWhitespace(line.charAt(0))
+        && !LIST_ITEM.matcher(line).find();
+  }
+
+  /**
+   * Header ids are deduplicated per render, duplicates across blocks need the whole document.
+   */
+  private static boolean hasDuplicateAnchor(String cooked, Set<String> ids) {
+    Matcher matcher = ANCHOR_ID.matcher(cooked);
+    while (matcher.find()) {
+      if (!ids.add(matcher.group(1))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static final class Blocks {
+
+    final List<String> blocks;
+    /**
+     * Top-level reference definitions, appended to every block.
+     */
+    final String references;
+    /**
+     * Top-level footnote definitions by label, rendered once into the footnote section.
+     */
+    final Map<String, String> footnotes;
+
+    private Blocks(List<String> blocks, String references, Map<String, String> footnotes) {
+      this.blocks = blocks;
+      this.references = references;
+      this.footnotes = footnotes;
+    }
+  }
+}
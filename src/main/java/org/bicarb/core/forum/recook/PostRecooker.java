@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.recook;
+
+import com.google.common.util.concurrent.RateLimiter;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManager;
+import org.bicarb.core.forum.domain.Post;
+import org.bicarb.core.forum.repository.PostRepository;
+import org.bicarb.core.forum.search.PostIndexQueue;
+import org.bicarb.core.forum.service.PostService;
+import org.bicarb.core.system.bean.Renderer;
+import org.bicarb.core.system.config.RenderProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Re-render the cooked html of all posts, e.g. after extensions or options
+ * of {@link Renderer} are changed.
+ * Posts are streamed by id in batches, rendered on a fork-join pool of
+ * {@link RenderProperties.Recook#getThreads()} threads, and the changed ones are written back
+ * by one jdbc batch per batch, together with the {@link RecookCheckpoint}.
+ * Throughput is limited to {@link RenderProperties.Recook#getPostsPerSecond()}.
+ * Posts are rendered around the render cache, so live content is not evicted.
+ * Posts failed to render, or degraded to escaped text by the render guard, keep their
+ * cooked and are recorded as {@link RecookFailure} for {@link #retryFailed()}.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class PostRecooker {
+
+  private static final Logger logger = LoggerFactory.getLogger(PostRecooker.class);
+
+  public static final Integer CHECKPOINT_ID = 1;
+
+  private static final String BATCH_QUERY = "select p.id, p.index, p.raw, p.cooked from Post p"
+      + " where p.id > :lastId and p.id <= :maxId order by p.id";
+  private static final String COUNT_QUERY = "select count(p) from Post p"
+      + " where p.id > :lastId and p.id <= :maxId";
+  private static final String RETRY_BATCH_QUERY = "select p.id, p.index, p.raw, p.cooked"
+      + " from Post p where p.id > :lastId"
+      + " and p.id in (select f.postId from RecookFailure f) order by p.id";
+  /**
+   * Skip posts edited since they were read, they are cooked by the current renderer.
+   */
+  private static final String UPDATE_SQL = "update posts set cooked = ? where id = ? and raw = ?";
+  /**
+   * Failures of the posts in a batch are replaced by the ones of this run.
+   */
+  private static final String FAILURE_DELETE_SQL = "delete from recook_failures"
+      + " where post_id > ? and post_id <= ?";
+  private static final String FAILURE_INSERT_SQL = "insert into recook_failures"
+      + " (post_id, reason, fail_at) values (?, ?, now())";
+
+  private final AtomicBoolean running = new AtomicBoolean(false);
+
+  private final EntityManager entityManager;
+  private final JdbcTemplate jdbcTemplate;
+  private final PostRepository postRepository;
+  private final RecookCheckpointRepository checkpointRepository;
+  private final RecookFailureRepository failureRepository;
+  private final Renderer renderer;
+  private final PostService postService;
+  private final PostIndexQueue postIndexQueue;
+  private final TransactionTemplate transactionTemplate;
+  private final TransactionTemplate writeTransactionTemplate;
+  private final RenderProperties.Recook properties;
+
+  private volatile Job job;
+
+  /** Constructor. */
+  @Autowired
+  public PostRecooker(
+      EntityManager entityManager,
+      JdbcTemplate jdbcTemplate,
+      PostRepository postRepository,
+      RecookCheckpointRepository checkpointRepository,
+      RecookFailureRepository failureRepository,
+      Renderer renderer,
+      PostService postService,
+      PostIndexQueue postIndexQueue,
+      PlatformTransactionManager transactionManager,
+      RenderProperties renderProperties) {
+    this.entityManager = entityManager;
+    this.jdbcTemplate = jdbcTemplate;
+    this.postRepository = postRepository;
+    this.checkpointRepository = checkpointRepository;
+    this.failureRepository = failureRepository;
+    this.renderer = renderer;
+    this.postService = postService;
+    this.postIndexQueue = postIndexQueue;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.transactionTemplate.setReadOnly(true);
+    this.writeTransactionTemplate = new TransactionTemplate(transactionManager);
+    this.writeTransactionTemplate
+        .setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.properties = renderProperties.getRecook();
+  }
+
+  /**
+   * Recook all posts, or resume from the checkpoint. Async.
+   * @param resume continue an interrupted job, start over if there is no checkpoint
+   * @return false if another job is running or some posts failed
+   */
+  @Async
+  public CompletableFuture<Boolean> start(boolean resume) {
+    return CompletableFuture.completedFuture(recook(resume));
+  }
+
+  /**
+   * Recook all posts, or resume from the checkpoint, block until finished.
+   * @see #start(boolean)
+   */
+  public boolean recook(boolean resume) {
+    if (!running.compareAndSet(false, true)) {
+      logger.warn("Recook is running, ignore this request.");
+      return false;
+    }
+    try {
+      RecookCheckpoint checkpoint = resume
+          ? checkpointRepository.findById(CHECKPOINT_ID).orElse(null)
+          : null;
+      if (checkpoint == null) {
+        Integer maxId = postRepository.findMaxId();
+        if (maxId == null) {
+          return true;
+        }
+        checkpoint = RecookCheckpoint.builder()
+            .id(CHECKPOINT_ID)
+            .maxId(maxId)
+            .createAt(Instant.now())
+            .build();
+        RecookCheckpoint created = checkpoint;
+        writeTransactionTemplate.execute(status -> checkpointRepository.save(created));
+      }
+      return run(checkpoint, resume);
+    } finally {
+      running.set(false);
+    }
+  }
+
+  /**
+   * Recook only the recorded failures. Async.
+   * @return false if another job is running or some posts failed again
+   */
+  @Async
+  public CompletableFuture<Boolean> startRetry() {
+    return CompletableFuture.completedFuture(retryFailed());
+  }
+
+  /**
+   * Recook only the recorded failures, block until finished.
+   * @return false if another job is running or some posts failed again
+   */
+  public boolean retryFailed() {
+    if (!running.compareAndSet(false, true)) {
+      logger.warn("Recook is running, ignore this request.");
+      return false;
+    }
+    try {
+      long total = failureRepository.count();
+      Job current = new Job(false, total, 0);
+      job = current;
+      logger.info("Retry recook of {} failed posts.", total);
+      return process(current, null) && current.failed.get() == 0;
+    } finally {
+      running.set(false);
+    }
+  }
+
+  /**
+   * Progress of the running or last finished job.
+   */
+  public Optional<RecookProgress> getProgress() {
+    Job current = job;
+    return current == null ? Optional.empty() : Optional.of(current.snapshot());
+  }
+
+  private boolean run(RecookCheckpoint checkpoint, boolean resume) {
+    int startId = checkpoint.getLastId() == null ? 0 : checkpoint.getLastId();
+    int maxId = checkpoint.getMaxId();
+    long total = transactionTemplate.execute(status -> entityManager
+        .createQuery(COUNT_QUERY, Long.class)
+        .setParameter("lastId", startId)
+        .setParameter("maxId", maxId)
+        .getSingleResult());
+    Job current = new Job(resume, total, startId);
+    job = current;
+    logger.info("Recook {} posts after id {}, resume: {}.", total, startId, resume);
+    if (!process(current, maxId)) {
+      return false;
+    }
+    writeTransactionTemplate.execute(status -> {
+      checkpointRepository.deleteById(CHECKPOINT_ID);
+      return null;
+    });
+    return current.failed.get() == 0;
+  }
+
+  /**
+   * Recook batches after {@link Job#lastId}.
+   * @param maxId null to recook the recorded failures only, without checkpoint
+   * @return false if interrupted or failed, resume from {@link Job#lastId}
+   */
+  private boolean process(Job current, Integer maxId) {
+    RateLimiter rateLimiter = RateLimiter.create(properties.getPostsPerSecond());
+    ForkJoinPool pool = new ForkJoinPool(properties.getThreads());
+    try {
+      int lastId = current.lastId;
+      while (true) {
+        List<Object[]> rows = load(lastId, maxId);
+        if (rows.isEmpty()) {
+          break;
+        }
+        rateLimiter.acquire(rows.size());
+        Queue<Object[]> failures = new ConcurrentLinkedQueue<>();
+        List<Object[]> changed = pool.submit(() -> rows.parallelStream()
+            .map(row -> cook(current, row, failures))
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList()))
+            .get();
+        int fromId = lastId;
+        lastId = (Integer) rows.get(rows.size() - 1)[0];
+        write(changed, new ArrayList<>(failures), fromId, lastId, maxId != null);
+        current.done.addAndGet(rows.size());
+        current.changed.addAndGet(changed.size());
+        current.lastId = lastId;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.error("recook interrupted", e);
+      return false;
+    } catch (ExecutionException | RuntimeException e) {
+      logger.error("recook failed, resume from post " + current.lastId, e);
+      return false;
+    } finally {
+      pool.shutdownNow();
+      current.finishAt = Instant.now();
+    }
+    logger.info("Recooked {} posts, {} changed, {} failed.",
+        current.done.get(), current.changed.get(), current.failed.get());
+    return true;
+  }
+
+  private List<Object[]> load(int lastId, Integer maxId) {
+    return transactionTemplate.execute(status -> {
+      if (maxId == null) {
+        return entityManager.createQuery(RETRY_BATCH_QUERY, Object[].class)
+            .setParameter("lastId", lastId)
+            .setMaxResults(properties.getBatchSize())
+            .getResultList();
+      }
+      return entityManager.createQuery(BATCH_QUERY, Object[].class)
+          .setParameter("lastId", lastId)
+          .setParameter("maxId", maxId)
+          .setMaxResults(properties.getBatchSize())
+          .getResultList();
+    });
+  }
+
+  /**
+   * Render like {@link org.bicarb.core.forum.hook.PostRawUpdatePreCommit}, but uncached.
+   * @param failures (id, reason) of the failed and degraded posts are added
+   * @return update parameters (cooked, id, raw), null if unchanged or failed
+   */
+  private Object[] cook(Job current, Object[] row, Queue<Object[]> failures) {
+    Integer id = (Integer) row[0];
+    Integer index = (Integer) row[1];
+    String raw = (String) row[2];
+    try {
+      Optional<String> rendered = index == 0
+          ? renderer.renderTopicUncached(raw)
+          : renderer.renderPostUncached(raw);
+      if (!rendered.isPresent()) {
+        current.failed.incrementAndGet();
+        failures.add(new Object[] {id, RecookFailure.DEGRADED});
+        return null;
+      }
+      String cooked = postService.linkMentions(rendered.get());
+      return cooked.equals(row[3]) ? null : new Object[] {cooked, id, raw};
+    } catch (IOException | RuntimeException e) {
+      current.failed.incrementAndGet();
+      failures.add(new Object[] {id, e.getClass().getSimpleName()});
+      logger.warn("recook post " + id + " failed", e);
+      return null;
+    }
+  }
+
+  /**
+   * Write changed cooked, failures of posts in (fromId, lastId] and the checkpoint
+   * in one transaction, then evict and reindex.
+   */
+  private void write(List<Object[]> changed, List<Object[]> failures, int fromId, int lastId,
+      boolean checkpoint) {
+    writeTransactionTemplate.execute(status -> {
+      if (!changed.isEmpty()) {
+        jdbcTemplate.batchUpdate(UPDATE_SQL, changed);
+      }
+      jdbcTemplate.update(FAILURE_DELETE_SQL, fromId, lastId);
+      if (!failures.isEmpty()) {
+        jdbcTemplate.batchUpdate(FAILURE_INSERT_SQL, failures);
+      }
+      if (checkpoint) {
+        checkpointRepository.updateLastId(CHECKPOINT_ID, lastId);
+      }
+      return null;
+    });
+    if (changed.isEmpty()) {
+      return;
+    }
+    List<Integer> ids = new ArrayList<>(changed.size());
+    for (Object[] params : changed) {
+      Integer id = (Integer) params[1];
+      entityManager.getEntityManagerFactory().getCache().evict(Post.class, id);
+      ids.add(id);
+    }
+    postIndexQueue.enqueue(ids);
+  }
+
+  private static class Job {
+
+    private final boolean resumed;
+    private final long total;
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong changed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Instant startAt = Instant.now();
+    private volatile int lastId;
+    private volatile Instant finishAt;
+
+    private Job(boolean resumed, long total, int lastId) {
+      this.resumed = resumed;
+      this.total = total;
+      this.lastId = lastId;
+    }
+
+    private RecookProgress snapshot() {
+      long doneCount = done.get();
+      Instant end = finishAt == null ? Instant.now() : finishAt;
+      double seconds = Math.max(Duration.between(startAt, end).toMillis(), 1) / 1000d;
+      double postsPerSecond = doneCount / seconds;
+      Long etaSeconds = null;
+      if (finishAt != null) {
+        etaSeconds = 0L;
+      } else if (postsPerSecond > 0) {
+        etaSeconds = (long) (Math.max(total - doneCount, 0) / postsPerSecond);
+      }
+
+      return RecookProgress.builder()
+          .running(finishAt == null)
+          .resumed(resumed)
+          .total(total)
+          .done(doneCount)
+          .changed(changed.get())
+          .failed(failed.get())
+          .lastId(lastId)
+          .postsPerSecond(postsPerSecond)
+          .etaSeconds(etaSeconds)
+          .startAt(startAt)
+          .finishAt(finishAt)
+          .build();
+    }
+  }
+}
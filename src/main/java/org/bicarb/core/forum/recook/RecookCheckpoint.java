@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.recook;
+
+import java.time.Instant;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Persisted progress of {@link PostRecooker}, used to resume after a crash.
+ * The row is removed once the job is finished.
+ *
+ * @author olOwOlo
+ */
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Table(name = "recook_checkpoints")
+@Entity
+public class RecookCheckpoint {
+
+  /**
+   * Only one job, always {@link PostRecooker#CHECKPOINT_ID}.
+   */
+  @Id
+  private Integer id;
+  /**
+   * Last recooked post id, null if nothing has been recooked yet.
+   */
+  private Integer lastId;
+  /**
+   * Max post id when the job started, later posts are cooked by the current renderer.
+   */
+  @Column(nullable = false)
+  private Integer maxId;
+  @Column(columnDefinition = "timestamp default now()", nullable = false)
+  private Instant createAt;
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.recook;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * RecookCheckpointRepository.
+ *
+ * @author olOwOlo
+ */
+public interface RecookCheckpointRepository extends JpaRepository<RecookCheckpoint, Integer> {
+
+  @Modifying
+  @Query("update RecookCheckpoint set lastId = ?2 where id = ?1")
+  void updateLastId(Integer id, Integer lastId);
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.recook;
+
+import io.swagger.annotations.ApiOperation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * RecookController.
+ *
+ * @author olOwOlo
+ */
+@RequestMapping("/api")
+@RestController
+public class RecookController {
+
+  private final PostRecooker postRecooker;
+
+  @Autowired
+  public RecookController(PostRecooker postRecooker) {
+    this.postRecooker = postRecooker;
+  }
+
+  @ApiOperation(value = "Recook all posts",
+      notes = "re-render cooked html after renderer changes, if resume, then continue "
+          + "from the checkpoint of an interrupted job")
+  @PreAuthorize("hasAuthority('admin')")
+  @PostMapping(value = "/recook")
+  public void recook(@RequestParam(defaultValue = "false") Boolean resume) {
+    postRecooker.start(resume);
+  }
+
+  @ApiOperation(value = "Recook failed posts",
+      notes = "re-render only the posts failed or degraded in previous recooks,"
+          + " or stored degraded on create or edit")
+  @PreAuthorize("hasAuthority('admin')")
+  @PostMapping(value = "/recook/retry")
+  public void recookRetry() {
+    postRecooker.startRetry();
+  }
+
+  @ApiOperation(value = "Progress of the running or last finished recook",
+      notes = "posts done/total, changed, failed, posts per second and eta")
+  @PreAuthorize("hasAuthority('admin')")
+  @GetMapping(value = "/recook/progress", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<RecookProgress> recookProgress() {
+    return postRecooker.getProgress()
+        .map(ResponseEntity::ok)
+        .orElseGet(() -> ResponseEntity.noContent().build());
+  }
+}
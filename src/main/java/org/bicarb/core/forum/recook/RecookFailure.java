@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.recook;
+
+import java.time.Instant;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A post {@link PostRecooker} could not render, or stored degraded on create or edit,
+ * kept until a later run renders it, see {@link PostRecooker#retryFailed()}.
+ *
+ * @author olOwOlo
+ */
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Table(name = "recook_failures")
+@Entity
+public class RecookFailure {
+
+  public static final String DEGRADED = "degraded";
+
+  @Id
+  private Integer postId;
+  /**
+   * `degraded` if the render timed out, otherwise the exception class.
+   */
+  @Column(nullable = false)
+  private String reason;
+  @Column(columnDefinition = "timestamp default now()", nullable = false)
+  private Instant failAt;
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.recook;
+
+import java.time.Instant;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Snapshot of a running or finished recook job.
+ *
+ * @author olOwOlo
+ */
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class RecookProgress {
+
+  private Boolean running;
+  private Boolean resumed;
+  private Long total;
+  private Long done;
+  /**
+   * Posts whose cooked changed and were written back.
+   */
+  private Long changed;
+  private Long failed;
+  private Integer lastId;
+  private Double postsPerSecond;
+  /**
+   * Estimated seconds left, null if unknown.
+   */
+  private Long etaSeconds;
+  private Instant startAt;
+  private Instant finishAt;
+}
@@ -16,8 +16,13 @@
 
 package org.bicarb.core.forum.repository;
 
+import java.time.Instant;
+import java.util.List;
 import org.bicarb.core.forum.domain.Notification;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
 /**
  * NotificationRepository.
@@ -26,4 +31,16 @@ import org.springframework.data.jpa.repository.JpaRepository;
  */
 public interface NotificationRepository extends JpaRepository<Notification, Integer> {
 
+  List<Notification> findByToIdAndCreateAtGreaterThanEqualAndIdNot(Integer toId, Instant from,
+      Integer excludeId, Pageable pageable);
+
+  @Modifying
+  @Query("update Notification n set n.readAt = ?3"
+      + " where n.to.id = ?1 and n.id <= ?2 and n.readAt is null")
+  int markReadUpTo(Integer toId, Integer upToId, Instant readAt);
+
+  @Modifying
+  @Query("update Notification n set n.readAt = ?4"
+      + " where n.to.id = ?1 and n.topic.id = ?2 and n.id <= ?3 and n.readAt is null")
+  int markReadInTopicUpTo(Integer toId, Integer topicId, Integer upToId, Instant readAt);
 }
@@ -16,12 +16,14 @@
 
 package org.bicarb.core.forum.repository;
 
+import java.time.Instant;
 import java.util.List;
 import org.bicarb.core.forum.domain.Post;
 import org.bicarb.core.forum.domain.Topic;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 /**
  * PostRepository.
@@ -33,4 +35,16 @@ public interface PostRepository extends JpaRepository<Post, Integer> {
   List<Post> findByTopic(Topic topic);
 
   Page<Post> findByTopic(Topic topic, Pageable pageable);
+
+  @Query("select min(p.id) from Post p")
+  Integer findMinId();
+
+  @Query("select max(p.id) from Post p")
+  Integer findMaxId();
+
+  @Query("select min(p.id) from Post p where p.createAt >= ?1 or p.lastEditAt >= ?1")
+  Integer findMinIdModifiedSince(Instant since);
+
+  @Query("select max(p.id) from Post p where p.createAt >= ?1 or p.lastEditAt >= ?1")
+  Integer findMaxIdModifiedSince(Instant since);
 }
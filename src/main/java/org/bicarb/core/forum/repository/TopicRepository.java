@@ -16,10 +16,12 @@
 
 package org.bicarb.core.forum.repository;
 
+import java.util.List;
 import org.bicarb.core.forum.domain.Topic;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 /**
  * Topic Repository.
@@ -31,4 +33,11 @@ public interface TopicRepository extends JpaRepository<Topic, Integer> {
   @Modifying
   @Query(value = "update topics set delete = delete where id = '-1'", nativeQuery = true)
   void invalidateAllTopic();
+
+  /**
+   * Topics in the category or its descendants, since topics also relate to all ancestors.
+   */
+  @Query(value = "select topic_id from topics_categories where categories_id = :cid",
+      nativeQuery = true)
+  List<Integer> findIdsByCategoryId(@Param("cid") Integer cid);
 }
@@ -16,7 +16,10 @@
 
 package org.bicarb.core.forum.repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 import javax.persistence.QueryHint;
 import org.bicarb.core.forum.domain.Group;
 import org.bicarb.core.forum.domain.User;
@@ -36,6 +39,18 @@ public interface UserRepository extends JpaRepository<User, Integer> {
   @QueryHints({ @QueryHint(name = Constant.QUERY_CACHE_HINT, value = "true") })
   Optional<User> findByUsernameIgnoreCase(String username);
 
+  /**
+   * Matched by the index `uk_user_username` on upper(username).
+   */
+  @Query("select u.id, u.username from User u where upper(u.username) in ?1")
+  List<Object[]> findIdAndUsernameByUpperUsernameIn(Collection<String> upperUsernames);
+
+  @Query("select u.id, lower(u.username) from User u")
+  Stream<Object[]> streamIdAndLowerUsername();
+
+  @Query("select u.id, lower(u.username) from User u where u.id > ?1")
+  List<Object[]> findIdAndLowerUsernameByIdGreaterThan(Integer id);
+
   Optional<User> findByEmail(String email);
 
   Optional<User> findByNickname(String nickname);
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hankcs.hanlp.HanLP;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.persistence.EntityManager;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.bicarb.core.forum.exception.ServiceUnavailableException;
+import org.bicarb.core.system.config.SearchProperties;
+import org.hibernate.search.SearchFactory;
+import org.hibernate.search.jpa.Search;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Lifecycle of the HanLP analyzers, which load large dictionaries on first use.
+ * Dictionaries are preloaded on a background thread once the context is refreshed, startup and
+ * other requests are not blocked. Searches wait for it up to
+ * `bicarb.search.analyzer.ready-timeout`, readiness is reported by `/api/search/ready`.
+ * Tokenizers are reused per thread and field by the Lucene analyzer reuse strategy,
+ * only the dictionaries are shared.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class AnalyzerWarmer {
+
+  private static final Logger logger = LoggerFactory.getLogger(AnalyzerWarmer.class);
+
+  private static final String[] ANALYZERS = {"cn", "suggest", "suggestQuery"};
+  private static final String SAMPLE = "商品和服务，北京大学的张三在 2018 年发布了 Bicarb forum";
+
+  private final AtomicBoolean started = new AtomicBoolean(false);
+  private final CompletableFuture<Boolean> ready = new CompletableFuture<>();
+  private final Map<String, Long> analyzerMillis = Collections.synchronizedMap(
+      new LinkedHashMap<>());
+  private volatile Instant startAt;
+  private volatile Instant endAt;
+
+  private final EntityManager entityManager;
+  private final SearchProperties.Analyzer properties;
+
+  /** Constructor. */
+  @Autowired
+  public AnalyzerWarmer(EntityManager entityManager, SearchProperties searchProperties) {
+    this.entityManager = entityManager;
+    this.properties = searchProperties.getAnalyzer();
+    // before any dictionary is loaded
+    if (StringUtils.isNotBlank(properties.getDictionaryRoot())) {
+      HanLP.Config.IOAdapter = new MappedIoAdapter(
+          Paths.get(properties.getDictionaryRoot()), HanLP.Config.IOAdapter);
+      logger.info("HanLP dictionaries are memory mapped from {}.", properties.getDictionaryRoot());
+    }
+  }
+
+  /**
+   * Start warming up once, ready immediately if disabled.
+   */
+  @EventListener(ContextRefreshedEvent.class)
+  public void onContextRefreshed() {
+    if (!started.compareAndSet(false, true)) {
+      return;
+    }
+    startAt = Instant.now();
+    if (!properties.isWarmUp()) {
+      endAt = startAt;
+      ready.complete(true);
+      return;
+    }
+    new ThreadFactoryBuilder().setNameFormat("analyzer-warmup").setDaemon(true).build()
+        .newThread(this::warmUp)
+        .start();
+  }
+
+  /**
+   * Block until warmed up, at most `ready-timeout`.
+   * @throws ServiceUnavailableException if still warming up
+   */
+  public void awaitReady() {
+    if (ready.isDone()) {
+      return;
+    }
+    try {
+      ready.get(properties.getReadyTimeout().toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new ServiceUnavailableException("Search is warming up, try again later.");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ServiceUnavailableException("Search is warming up, try again later.");
+    } catch (ExecutionException e) {
+      // never, failures complete normally
+    }
+  }
+
+  public boolean isReady() {
+    return ready.isDone();
+  }
+
+  /**
+   * Snapshot of readiness and timing.
+   */
+  public AnalyzerWarmupStatus getStatus() {
+    Instant start = startAt;
+    Instant end = endAt;
+    Long elapsed = start == null
+        ? null
+        : Duration.between(start, end == null ? Instant.now() : end).toMillis();
+    return AnalyzerWarmupStatus.builder()
+        .ready(ready.isDone())
+        .failed(ready.isDone() && !ready.getNow(true))
+        .startAt(start)
+        .elapsedMillis(elapsed)
+        .analyzerMillis(new LinkedHashMap<>(analyzerMillis))
+        .dictionaryRoot(properties.getDictionaryRoot())
+        .build();
+  }
+
+  private void warmUp() {
+    boolean success = true;
+    try {
+      SearchFactory searchFactory = Search.getFullTextEntityManager(entityManager)
+          .getSearchFactory();
+      for (String name : ANALYZERS) {
+        long start = System.nanoTime();
+        analyze(searchFactory.getAnalyzer(name));
+        analyzerMillis.put(name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+    } catch (RuntimeException | IOException e) {
+      success = false;
+      logger.error("Analyzer warm-up failed, dictionaries will be loaded on first use.", e);
+    } finally {
+      endAt = Instant.now();
+      ready.complete(success);
+    }
+
+    Duration elapsed = Duration.between(startAt, endAt);
+    if (elapsed.compareTo(properties.getBudget()) > 0) {
+      logger.warn("Analyzer warm-up took {} ms, over the budget of {} ms, {}",
+          elapsed.toMillis(), properties.getBudget().toMillis(), analyzerMillis);
+    } else {
+      logger.info("Analyzer warm-up took {} ms, {}", elapsed.toMillis(), analyzerMillis);
+    }
+  }
+
+  private void analyze(Analyzer analyzer) throws IOException {
+    try (TokenStream tokenStream = analyzer.tokenStream("warmup", SAMPLE)) {
+      tokenStream.reset();
+      while (tokenStream.incrementToken()) {
+        // consume
+      }
+      tokenStream.end();
+    }
+  }
+}
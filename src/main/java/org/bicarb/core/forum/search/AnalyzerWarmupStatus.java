@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import java.time.Instant;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Snapshot of {@link AnalyzerWarmer}.
+ *
+ * @author olOwOlo
+ */
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class AnalyzerWarmupStatus {
+
+  /**
+   * Warm-up finished (or failed, or disabled), searches are served.
+   */
+  private Boolean ready;
+  private Boolean failed;
+  private Instant startAt;
+  /**
+   * Milliseconds since start if warming, otherwise the total warm-up time.
+   */
+  private Long elapsedMillis;
+  /**
+   * Milliseconds of the first analysis by each analyzer, dictionary loading mostly.
+   */
+  private Map<String, Long> analyzerMillis;
+  /**
+   * Dictionary directory memory mapped, null if read from classpath.
+   */
+  private String dictionaryRoot;
+}
@@ -21,12 +21,14 @@ import java.lang.annotation.ElementType;
 import org.apache.lucene.analysis.charfilter.HTMLStripCharFilterFactory;
 import org.apache.lucene.analysis.core.LowerCaseFilterFactory;
 import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilterFactory;
+import org.apache.lucene.analysis.ngram.EdgeNGramFilterFactory;
 import org.apache.lucene.analysis.snowball.SnowballPorterFilterFactory;
 import org.bicarb.core.forum.domain.Post;
 import org.bicarb.core.forum.domain.Topic;
 import org.hibernate.search.annotations.Analyze;
 import org.hibernate.search.annotations.Factory;
 import org.hibernate.search.annotations.Norms;
+import org.hibernate.search.annotations.Store;
 import org.hibernate.search.annotations.TermVector;
 import org.hibernate.search.bridge.builtin.IntegerBridge;
 import org.hibernate.search.cfg.SearchMapping;
@@ -38,6 +40,17 @@ import org.hibernate.search.cfg.SearchMapping;
  */
 public class BicarbSearchMappingFactory {
 
+  /**
+   * Edge n-gram field of topic title, stored for projection.
+   */
+  public static final String TITLE_SUGGEST = "titleSuggest";
+
+  /**
+   * Index name of post, shards are named `posts.{shardId}`,
+   * see {@link PostShardIdentifierProvider}.
+   */
+  public static final String POST_INDEX_NAME = "posts";
+
   /**
    * Manual update post index instead of annotated with
    * {@link org.hibernate.search.annotations.ContainedIn} on topic.posts, see
@@ -57,28 +70,50 @@ public class BicarbSearchMappingFactory {
             .filter(LowerCaseFilterFactory.class)
             .filter(SnowballPorterFilterFactory.class)
                 .param("language", "English")
+        // define prefix analyzers for topic title suggestion
+        .analyzerDef("suggest", HanLPTokenizerFactory.class)
+            .filter(ASCIIFoldingFilterFactory.class)
+            .filter(LowerCaseFilterFactory.class)
+            .filter(EdgeNGramFilterFactory.class)
+                .param("minGramSize", "1")
+                .param("maxGramSize", "20")
+        .analyzerDef("suggestQuery", HanLPTokenizerFactory.class)
+            .filter(ASCIIFoldingFilterFactory.class)
+            .filter(LowerCaseFilterFactory.class)
         // mapping Post
         .entity(Post.class)
         .indexed()
+        .indexName(POST_INDEX_NAME)
         .interceptor(NonDeletePostInterceptor.class)
+        .classBridge(PostFilterBridge.class)  // numeric filter fields
         .property("cooked", ElementType.METHOD)
             .field()
-                .termVector(TermVector.YES)
+                .store(Store.YES)  // highlight, see SearchHighlighter
+                .termVector(TermVector.WITH_POSITION_OFFSETS)
                 .analyzer("cn")
         .property("topic", ElementType.METHOD)
             .indexEmbedded()
                 .depth(1)
+                .includeEmbeddedObjectId(true)  // `topic.id`, purge posts by topic
+                .includePaths("id", "title")
         .property("index", ElementType.METHOD)
             .field()
                 .analyze(Analyze.NO)
                 .norms(Norms.NO)
                 .bridge(IntegerBridge.class)  // not Trie structure
-        // mapping Topic
+        // mapping Topic, indexed for title suggestion, only `title` is embedded in post
         .entity(Topic.class)
+        .indexed()
+        .interceptor(NonDeleteTopicInterceptor.class)
         .property("title", ElementType.METHOD)
             .field()
             .termVector(TermVector.YES)
-            .analyzer("cn");
+            .analyzer("cn")
+            .field()
+                .name(TITLE_SUGGEST)
+                .store(Store.YES)
+                .norms(Norms.NO)
+                .analyzer("suggest");
 
     return mapping;
   }
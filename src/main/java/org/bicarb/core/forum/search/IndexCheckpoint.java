@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import java.time.Instant;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Persisted progress of one {@link PostIndexer} partition, used to resume after a crash.
+ * All rows are removed once the whole job is finished.
+ *
+ * @author olOwOlo
+ */
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Table(name = "index_checkpoints")
+@Entity
+public class IndexCheckpoint {
+
+  /**
+   * Inclusive post id range.
+   */
+  @Id
+  private Integer fromId;
+  @Column(nullable = false)
+  private Integer toId;
+  /**
+   * Last indexed post id, null if nothing has been indexed yet.
+   */
+  private Integer lastId;
+  @Column(columnDefinition = "boolean default false", nullable = false)
+  private Boolean done;
+  /**
+   * Only posts created or edited since this instant, null for all posts.
+   */
+  private Instant since;
+  @Column(columnDefinition = "timestamp default now()", nullable = false)
+  private Instant createAt;
+}
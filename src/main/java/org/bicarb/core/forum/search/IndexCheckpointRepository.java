@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * IndexCheckpointRepository.
+ *
+ * @author olOwOlo
+ */
+public interface IndexCheckpointRepository extends JpaRepository<IndexCheckpoint, Integer> {
+
+  @Modifying
+  @Query("update IndexCheckpoint set lastId = ?2 where fromId = ?1")
+  void updateLastId(Integer fromId, Integer lastId);
+
+  @Modifying
+  @Query("update IndexCheckpoint set done = true where fromId = ?1")
+  void markDone(Integer fromId);
+}
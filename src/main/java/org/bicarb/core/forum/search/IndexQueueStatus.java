@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Snapshot of {@link PostIndexQueue}.
+ *
+ * @author olOwOlo
+ */
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class IndexQueueStatus {
+
+  private Boolean enabled;
+  /**
+   * Posts waiting in the queue.
+   */
+  private Integer depth;
+  private Integer capacity;
+  /**
+   * Topics waiting or being indexed.
+   */
+  private Integer topicDepth;
+  /**
+   * Posts being indexed by workers.
+   */
+  private Integer inFlight;
+  /**
+   * Milliseconds the oldest waiting post has waited, 0 if the queue is empty.
+   */
+  private Long lagMillis;
+  private Long maxLagMillis;
+  private Long indexed;
+  /**
+   * Updates merged into a post already waiting in the queue.
+   */
+  private Long coalesced;
+  /**
+   * Posts indexed by the committing thread because the queue was full.
+   */
+  private Long overflowed;
+  private Long failed;
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import java.time.Instant;
+import java.util.Optional;
+import org.bicarb.core.system.config.SearchProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Resume an interrupted index rebuild once the application is ready,
+ * and index posts dropped or lost by {@link PostIndexQueue} again.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class IndexResumeListener {
+
+  private static final Logger logger = LoggerFactory.getLogger(IndexResumeListener.class);
+
+  private final SearchService searchService;
+  private final PostIndexQueue postIndexQueue;
+  private final SearchProperties searchProperties;
+
+  /**
+   * Recover passes replace checkpoints, so they wait for the resume.
+   */
+  private volatile boolean resumed;
+
+  /** Constructor. */
+  @Autowired
+  public IndexResumeListener(SearchService searchService, PostIndexQueue postIndexQueue,
+      SearchProperties searchProperties) {
+    this.searchService = searchService;
+    this.postIndexQueue = postIndexQueue;
+    this.searchProperties = searchProperties;
+  }
+
+  /**
+   * Resume from checkpoints if enabled, no-op if there is nothing to resume,
+   * then recover the post index queue.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void onApplicationReady() {
+    if (!searchProperties.getRebuild().isResumeOnStartup()) {
+      resumed = true;
+      recover();
+      return;
+    }
+    searchService.resumeReBuildIndex().thenAccept(success -> {
+      if (success) {
+        resumed = true;
+        recover();
+      } else {
+        logger.warn("Resume index failed, post index queue is not recovered until restart.");
+      }
+    });
+  }
+
+  /**
+   * Index posts changed since the queue may have missed them, one pass at a time,
+   * a pass refused by a running rebuild is retried next time.
+   */
+  @Scheduled(fixedDelayString = "${bicarb.search.async.recover-interval}")
+  public void recover() {
+    Optional<Instant> since = postIndexQueue.getRecoverSince();
+    if (!resumed || !since.isPresent()) {
+      return;
+    }
+    Instant startAt = Instant.now();
+    logger.info("Recover post index queue, index posts changed since {}.", since.get());
+    searchService.incrementalReBuildIndex(since.get()).thenAccept(success -> {
+      if (success) {
+        postIndexQueue.recovered(startAt);
+      }
+    });
+  }
+}
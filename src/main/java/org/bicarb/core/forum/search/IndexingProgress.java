@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import java.time.Instant;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Snapshot of a running or finished index rebuild.
+ *
+ * @author olOwOlo
+ */
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class IndexingProgress {
+
+  private Boolean running;
+  private Boolean purge;
+  /**
+   * Only posts created or edited since this instant, null for all posts.
+   */
+  private Instant since;
+  private Long total;
+  private Long done;
+  private Double docsPerSecond;
+  /**
+   * Estimated seconds left, null if unknown.
+   */
+  private Long etaSeconds;
+  private Instant startAt;
+  private Instant finishAt;
+  private List<Partition> partitions;
+
+  public enum State {
+    PENDING,
+    RUNNING,
+    DONE,
+    FAILED
+  }
+
+  @Builder
+  @AllArgsConstructor
+  @NoArgsConstructor
+  @Data
+  public static class Partition {
+    /**
+     * Inclusive post id range.
+     */
+    private Integer fromId;
+    private Integer toId;
+    private State state;
+    private Long done;
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import com.hankcs.hanlp.corpus.io.IIOAdapter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * HanLP io adapter reading dictionaries from a directory by memory mapping,
+ * files are streamed to HanLP without an intermediate read buffer.
+ * HanLP copies every dictionary into its own heap structures, so each process still holds
+ * a full copy.
+ * Falls back to the given adapter (the classpath of hanlp-portable) for missing files.
+ *
+ * @author olOwOlo
+ */
+final class MappedIoAdapter implements IIOAdapter {
+
+  private final Path root;
+  private final IIOAdapter fallback;
+
+  MappedIoAdapter(Path root, IIOAdapter fallback) {
+    this.root = root;
+    this.fallback = fallback;
+  }
+
+  @Override
+  public InputStream open(String path) throws IOException {
+    Path file = root.resolve(path);
+    if (!Files.isRegularFile(file)) {
+      return fallback.open(path);
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return new ByteBufferInputStream(
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Binary caches built by HanLP are written under the root, mapped on next start.
+   */
+  @Override
+  public OutputStream create(String path) throws IOException {
+    Path file = root.resolve(path);
+    Files.createDirectories(file.getParent());
+    return Files.newOutputStream(file);
+  }
+
+  /**
+   * HanLP sizes its buffers by {@link #available()}, which is the remaining of the mapping.
+   */
+  private static final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(len, buffer.remaining());
+      buffer.get(bytes, off, count);
+      return count;
+    }
+
+    @Override
+    public long skip(long n) {
+      int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
@@ -23,6 +23,10 @@ import org.hibernate.search.indexes.interceptor.IndexingOverride;
 /**
  * NonDeletePostInterceptor for hibernate search.
  * NOTE: Dirty checking optimization is disabled when interceptors are used.
+ * Also increase {@link SearchIndexGeneration} on every change applied here, so cached results
+ * are invalidated when the post index changes.
+ * If {@link PostIndexQueue} is active, changes are skipped here and indexed asynchronously,
+ * the queue increases it once the batch is flushed, hidden posts increase it right away.
  *
  * @author olOwOlo
  */
@@ -30,11 +34,22 @@ public class NonDeletePostInterceptor implements EntityIndexingInterceptor<Post>
 
   @Override
   public IndexingOverride onAdd(Post entity) {
+    if (PostIndexQueue.offer(entity.getId())) {
+      return IndexingOverride.SKIP;
+    }
+    SearchIndexGeneration.increase();
     return IndexingOverride.APPLY_DEFAULT;
   }
 
   @Override
   public IndexingOverride onUpdate(Post entity) {
+    if (entity.getDelete() || entity.getTopic().getDelete()) {
+      SearchIndexGeneration.increase();
+    }
+    if (PostIndexQueue.offer(entity.getId())) {
+      return IndexingOverride.SKIP;
+    }
+    SearchIndexGeneration.increase();
     return entity.getTopic().getDelete()
         ? IndexingOverride.SKIP
         : (entity.getDelete()
@@ -44,6 +59,10 @@ public class NonDeletePostInterceptor implements EntityIndexingInterceptor<Post>
 
   @Override
   public IndexingOverride onDelete(Post entity) {
+    SearchIndexGeneration.increase();
+    if (PostIndexQueue.offer(entity.getId())) {
+      return IndexingOverride.SKIP;
+    }
     return IndexingOverride.APPLY_DEFAULT;
   }
 
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import org.bicarb.core.forum.domain.Topic;
+import org.hibernate.search.indexes.interceptor.EntityIndexingInterceptor;
+import org.hibernate.search.indexes.interceptor.IndexingOverride;
+
+/**
+ * NonDeleteTopicInterceptor for hibernate search, deleted topics are not suggested.
+ * Updates of live topics are skipped since dirty checking is disabled with interceptors,
+ * title changes and restores are reindexed through {@link PostIndexQueue}
+ * by {@link TopicTitleUpdatePreCommit} and {@link TopicDeleteUpdatePreCommit}.
+ *
+ * @author olOwOlo
+ */
+public class NonDeleteTopicInterceptor implements EntityIndexingInterceptor<Topic> {
+
+  @Override
+  public IndexingOverride onAdd(Topic entity) {
+    return entity.getDelete() ? IndexingOverride.SKIP : IndexingOverride.APPLY_DEFAULT;
+  }
+
+  @Override
+  public IndexingOverride onUpdate(Topic entity) {
+    return entity.getDelete() ? IndexingOverride.REMOVE : IndexingOverride.SKIP;
+  }
+
+  @Override
+  public IndexingOverride onDelete(Topic entity) {
+    return IndexingOverride.APPLY_DEFAULT;
+  }
+
+  @Override
+  public IndexingOverride onCollectionUpdate(Topic entity) {
+    return onUpdate(entity);
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+
+/**
+ * Map between post ids and lucene document numbers of a searcher.
+ * Document numbers are only valid for the reader they come from.
+ *
+ * @author olOwOlo
+ */
+final class PostDocuments {
+
+  /**
+   * Document id field of post, stored and not analyzed.
+   */
+  static final String ID_FIELD = "id";
+
+  private static final Set<String> ID_FIELDS = Collections.singleton(ID_FIELD);
+
+  private PostDocuments() {
+  }
+
+  /**
+   * Document number of the post, -1 if not indexed.
+   */
+  static int docId(IndexSearcher searcher, Integer postId) throws IOException {
+    TopDocs docs = searcher.search(new TermQuery(new Term(ID_FIELD, postId.toString())), 1);
+    return docs.totalHits == 0 ? -1 : docs.scoreDocs[0].doc;
+  }
+
+  /**
+   * Post id stored in the document.
+   */
+  static Integer postId(IndexSearcher searcher, int docId) throws IOException {
+    Document document = searcher.doc(docId, ID_FIELDS);
+    return Integer.valueOf(document.get(ID_FIELD));
+  }
+}
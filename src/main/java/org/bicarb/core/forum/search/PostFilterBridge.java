@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.bicarb.core.forum.domain.Category;
+import org.bicarb.core.forum.domain.Post;
+import org.hibernate.search.bridge.LuceneOptions;
+import org.hibernate.search.bridge.MetadataProvidingFieldBridge;
+import org.hibernate.search.bridge.spi.FieldMetadataBuilder;
+import org.hibernate.search.bridge.spi.FieldType;
+
+/**
+ * Class bridge of post, index the numeric fields search results are filtered by.
+ * Categories of the topic are indexed with all their ancestors, and also as doc values
+ * to count category facets, see {@link PostSearcher}.
+ *
+ * @author olOwOlo
+ */
+public class PostFilterBridge implements MetadataProvidingFieldBridge {
+
+  public static final String CATEGORY_ID = "categoryId";
+  public static final String AUTHOR_ID = "authorId";
+  /**
+   * Epoch millis.
+   */
+  public static final String CREATE_AT = "createAt";
+
+  @Override
+  public void configureFieldMetadata(String name, FieldMetadataBuilder builder) {
+    builder.field(CATEGORY_ID, FieldType.INTEGER)
+        .field(AUTHOR_ID, FieldType.INTEGER)
+        .field(CREATE_AT, FieldType.LONG);
+  }
+
+  @Override
+  public void set(String name, Object value, Document document, LuceneOptions luceneOptions) {
+    Post post = (Post) value;
+    document.add(new IntField(AUTHOR_ID, post.getAuthor().getId(), Store.NO));
+    document.add(new LongField(CREATE_AT, post.getCreateAt().toEpochMilli(), Store.NO));
+
+    Set<Integer> categoryIds = new HashSet<>();
+    for (Category category : post.getTopic().getCategories()) {
+      Category current = category;
+      while (current != null && categoryIds.add(current.getId())) {
+        current = current.getParent();
+      }
+    }
+    for (Integer categoryId : categoryIds) {
+      document.add(new IntField(CATEGORY_ID, categoryId, Store.NO));
+      document.add(new SortedNumericDocValuesField(CATEGORY_ID, categoryId));
+    }
+  }
+}
@@ -0,0 +1,539 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import org.bicarb.core.forum.domain.Post;
+import org.bicarb.core.system.config.SearchProperties;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.search.FullTextSession;
+import org.hibernate.search.Search;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Asynchronous post indexing, so that analyzing posts never happens in the committing thread.
+ * <p>
+ *   {@link NonDeletePostInterceptor} skips the hibernate search work and offers the post id
+ *   here instead, ids are queued after commit and repeated updates of a waiting post are
+ *   coalesced. Workers take a batch once it is full or its oldest post has waited
+ *   {@link SearchProperties.Async#getMaxLag()}, reload the posts and index or purge them.
+ * </p>
+ * <p>
+ *   Topic title or delete changes queue the topic instead of its posts,
+ *   see {@link PostIndexer#indexTopic(Integer)}.
+ * </p>
+ * <p>
+ *   Posts over the capacity are dropped, and queued posts are lost on a crash. Both are
+ *   recovered by {@link IndexResumeListener}, which indexes posts changed since
+ *   {@link #getRecoverSince()}: the first drop, or at startup, the last time the queue was
+ *   seen idle, which is kept in `index_queue_state`.
+ * </p>
+ *
+ * @author olOwOlo
+ */
+@Component
+public class PostIndexQueue {
+
+  private static final Logger logger = LoggerFactory.getLogger(PostIndexQueue.class);
+
+  /**
+   * Changes are committed and queued a while after their create or edit time.
+   */
+  private static final Duration RECOVER_MARGIN = Duration.ofMinutes(5);
+  private static final long MARK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+  private static final String MARK_SQL = "insert into index_queue_state (id, clean_at)"
+      + " values (1, ?) on conflict (id) do update set clean_at = excluded.clean_at";
+  private static final String CLEAN_AT_SQL = "select clean_at from index_queue_state where id = 1";
+
+  private static final String BATCH_QUERY = "select distinct p from Post p"
+      + " join fetch p.topic t join fetch p.author"
+      + " left join fetch t.categories c left join fetch c.parent"  // PostFilterBridge
+      + " where p.id in :ids";
+
+  /**
+   * The started queue, for {@link NonDeletePostInterceptor} which is not a spring bean.
+   */
+  private static volatile PostIndexQueue active;
+
+  private final EntityManager entityManager;
+  private final JdbcTemplate jdbcTemplate;
+  private final PostIndexer postIndexer;
+  private final TransactionTemplate transactionTemplate;
+  private final SearchProperties.Async properties;
+
+  /**
+   * Post id to enqueue time (nano), in enqueue order. Guarded by itself.
+   */
+  private final Map<Integer, Long> pending = new LinkedHashMap<>();
+  private final Set<Integer> inFlight = new HashSet<>();
+  private final Set<Integer> pendingTopics = new LinkedHashSet<>();
+  private final Set<Integer> inFlightTopics = new HashSet<>();
+  private final AtomicLong indexed = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong overflowed = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  /**
+   * Posts changed since may be missing from the index, null if none. Guarded by pending.
+   */
+  private Instant recoverSince;
+  private Instant lastDropAt;
+  private long markedAt;
+
+  private ExecutorService executor;
+  private volatile boolean running;
+
+  /** Constructor. */
+  @Autowired
+  public PostIndexQueue(
+      EntityManager entityManager,
+      JdbcTemplate jdbcTemplate,
+      PostIndexer postIndexer,
+      PlatformTransactionManager transactionManager,
+      SearchProperties searchProperties) {
+    this.entityManager = entityManager;
+    this.jdbcTemplate = jdbcTemplate;
+    this.postIndexer = postIndexer;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.transactionTemplate.setReadOnly(true);
+    this.properties = searchProperties.getAsync();
+  }
+
+  /**
+   * Offer a changed post to the started queue, it is queued after the current transaction
+   * is committed (dropped if rolled back).
+   * @return false if async indexing is disabled, the caller should index by itself
+   */
+  public static boolean offer(Integer postId) {
+    PostIndexQueue queue = active;
+    if (queue == null) {
+      return false;
+    }
+    queue.enqueueAfterCommit(Collections.singleton(postId));
+    return true;
+  }
+
+  /**
+   * Whether async indexing is enabled and started.
+   */
+  public static boolean isActive() {
+    return active != null;
+  }
+
+  @PostConstruct
+  void start() {
+    if (!properties.isEnabled()) {
+      return;
+    }
+    // changes after the last idle mark may be lost by a crash
+    jdbcTemplate.queryForList(CLEAN_AT_SQL, Timestamp.class).stream().findFirst()
+        .ifPresent(cleanAt -> recoverSince = cleanAt.toInstant().minus(RECOVER_MARGIN));
+    markedAt = System.nanoTime() - MARK_INTERVAL_NANOS;
+    running = true;
+    executor = Executors.newFixedThreadPool(properties.getThreads(),
+        new ThreadFactoryBuilder().setNameFormat("post-index-queue-%d").setDaemon(true).build());
+    for (int i = 0; i < properties.getThreads(); i++) {
+      executor.submit(this::work);
+    }
+    active = this;
+    logger.info("Async post indexing started with {} workers.", properties.getThreads());
+  }
+
+  @PreDestroy
+  void stop() throws InterruptedException {
+    if (executor == null) {
+      return;
+    }
+    active = null;
+    synchronized (pending) {
+      running = false;
+      pending.notifyAll();
+    }
+    // workers drain the queue before exit
+    executor.shutdown();
+    if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+      logger.warn("Async post indexing stopped with {} posts not indexed.", pending.size());
+    } else {
+      markClean(true);
+    }
+  }
+
+  /**
+   * Queue posts after the current transaction is committed, or now if there is no transaction.
+   */
+  public void enqueueAfterCommit(Collection<Integer> postIds) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      enqueue(postIds);
+      return;
+    }
+
+    @SuppressWarnings("unchecked")
+    Set<Integer> ids = (Set<Integer>) TransactionSynchronizationManager.getResource(this);
+    if (ids == null) {
+      Set<Integer> newIds = new LinkedHashSet<>();
+      TransactionSynchronizationManager.bindResource(this, newIds);
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+              enqueue(newIds);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+              TransactionSynchronizationManager.unbindResourceIfPossible(PostIndexQueue.this);
+            }
+          });
+      ids = newIds;
+    }
+    ids.addAll(postIds);
+  }
+
+  /**
+   * Queue a topic after the current transaction is committed, or now if there is no transaction.
+   * If async indexing is disabled, the topic is indexed by the committing thread after commit.
+   */
+  public void enqueueTopicAfterCommit(Integer topicId) {
+    enqueueTopicsAfterCommit(Collections.singleton(topicId));
+  }
+
+  /**
+   * Queue topics after the current transaction is committed, see
+   * {@link #enqueueTopicAfterCommit(Integer)}.
+   */
+  public void enqueueTopicsAfterCommit(Collection<Integer> topicIds) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      topicIds.forEach(this::enqueueTopic);
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronizationAdapter() {
+          @Override
+          public void afterCommit() {
+            topicIds.forEach(PostIndexQueue.this::enqueueTopic);
+          }
+        });
+  }
+
+  /**
+   * Queue a topic now, topics are taken before posts without waiting for max lag.
+   */
+  public void enqueueTopic(Integer topicId) {
+    if (executor == null) {
+      indexTopic(topicId);
+      return;
+    }
+    synchronized (pending) {
+      if (!pendingTopics.add(topicId)) {
+        coalesced.incrementAndGet();
+      }
+      pending.notifyAll();
+    }
+  }
+
+  /**
+   * Queue posts now, posts already waiting keep their place.
+   * If the queue is full, the rest posts are dropped and left to the recover pass,
+   * so the calling thread never indexes.
+   */
+  public void enqueue(Collection<Integer> postIds) {
+    int dropped = 0;
+    synchronized (pending) {
+      long now = System.nanoTime();
+      for (Integer id : postIds) {
+        if (pending.containsKey(id)) {
+          coalesced.incrementAndGet();
+        } else if (pending.size() < properties.getCapacity()) {
+          pending.put(id, now);
+        } else {
+          dropped++;
+        }
+      }
+      if (dropped > 0) {
+        lastDropAt = Instant.now();
+        if (recoverSince == null) {
+          recoverSince = lastDropAt.minus(RECOVER_MARGIN);
+        }
+      }
+      pending.notifyAll();
+    }
+
+    if (dropped > 0) {
+      logger.warn("Post index queue is full, drop {} posts for the recover pass.", dropped);
+      overflowed.addAndGet(dropped);
+    }
+  }
+
+  /**
+   * Posts changed since may be missing from the index, dropped when the queue was full
+   * or lost by a crash.
+   */
+  public Optional<Instant> getRecoverSince() {
+    synchronized (pending) {
+      return Optional.ofNullable(recoverSince);
+    }
+  }
+
+  /**
+   * Called after posts changed since {@link #getRecoverSince()} are indexed,
+   * by a pass started at the given instant. Drops after its start are kept for the next pass.
+   */
+  public void recovered(Instant passStartAt) {
+    synchronized (pending) {
+      recoverSince = lastDropAt != null && !lastDropAt.isBefore(passStartAt)
+          ? passStartAt.minus(RECOVER_MARGIN)
+          : null;
+    }
+  }
+
+  /**
+   * Block until no post is waiting or being indexed.
+   * @return false if timeout
+   */
+  public boolean awaitIdle(Duration timeout) throws InterruptedException {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    synchronized (pending) {
+      while (!pending.isEmpty() || !inFlight.isEmpty()
+          || !pendingTopics.isEmpty() || !inFlightTopics.isEmpty()) {
+        long left = deadline - System.nanoTime();
+        if (left <= 0) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(pending, left);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Queue depth, lag and counters.
+   */
+  public IndexQueueStatus getStatus() {
+    synchronized (pending) {
+      long lagNanos = pending.isEmpty()
+          ? 0 : System.nanoTime() - pending.values().iterator().next();
+      return IndexQueueStatus.builder()
+          .enabled(executor != null)
+          .depth(pending.size())
+          .topicDepth(pendingTopics.size() + inFlightTopics.size())
+          .capacity(properties.getCapacity())
+          .inFlight(inFlight.size())
+          .lagMillis(TimeUnit.NANOSECONDS.toMillis(lagNanos))
+          .maxLagMillis(properties.getMaxLag().toMillis())
+          .indexed(indexed.get())
+          .coalesced(coalesced.get())
+          .overflowed(overflowed.get())
+          .failed(failed.get())
+          .build();
+    }
+  }
+
+  private void work() {
+    while (true) {
+      Task task = take();
+      if (task == null) {
+        return;
+      }
+      try {
+        if (task.topicId != null) {
+          indexTopic(task.topicId);
+        } else {
+          index(task.postIds);
+        }
+      } finally {
+        synchronized (pending) {
+          inFlightTopics.remove(task.topicId);
+          inFlight.removeAll(task.postIds);
+          pending.notifyAll();
+        }
+      }
+      markClean(false);
+    }
+  }
+
+  /**
+   * Persist that every post queued so far is indexed, if the queue is idle and nothing
+   * is left to recover, at most once per {@link #MARK_INTERVAL_NANOS} unless forced.
+   */
+  private void markClean(boolean force) {
+    Instant cleanAt;
+    synchronized (pending) {
+      if (!pending.isEmpty() || !inFlight.isEmpty() || !pendingTopics.isEmpty()
+          || !inFlightTopics.isEmpty() || recoverSince != null
+          || (!force && System.nanoTime() - markedAt < MARK_INTERVAL_NANOS)) {
+        return;
+      }
+      markedAt = System.nanoTime();
+      cleanAt = Instant.now();
+    }
+    try {
+      jdbcTemplate.update(MARK_SQL, Timestamp.from(cleanAt));
+    } catch (DataAccessException e) {
+      // an older mark only makes recovery index more posts
+      logger.warn("write index queue mark failed: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Wait for the next topic or batch of posts.
+   * @return null if stopped and drained
+   */
+  private Task take() {
+    long maxLag = properties.getMaxLag().toNanos();
+    synchronized (pending) {
+      while (true) {
+        long waitNanos = maxLag;
+        Integer topicId = pendingTopics.stream()
+            .filter(id -> !inFlightTopics.contains(id))
+            .findFirst()
+            .orElse(null);
+        if (topicId != null) {
+          pendingTopics.remove(topicId);
+          inFlightTopics.add(topicId);
+          return new Task(topicId, Collections.emptyList());
+        }
+        if (!pending.isEmpty()) {
+          long age = System.nanoTime() - pending.values().iterator().next();
+          if (!running || age >= maxLag || pending.size() >= properties.getBatchSize()) {
+            List<Integer> batch = drain();
+            if (!batch.isEmpty()) {
+              return new Task(null, batch);
+            }
+            // all waiting posts are being indexed by other workers
+          } else {
+            waitNanos = maxLag - age;
+          }
+        } else if (!running && pendingTopics.isEmpty()) {
+          return null;
+        }
+        try {
+          TimeUnit.NANOSECONDS.timedWait(pending, waitNanos);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Take up to batch size posts, skip posts being indexed to keep updates of a post in order.
+   */
+  private List<Integer> drain() {
+    List<Integer> batch = new ArrayList<>();
+    Iterator<Integer> iterator = pending.keySet().iterator();
+    while (iterator.hasNext() && batch.size() < properties.getBatchSize()) {
+      Integer id = iterator.next();
+      if (!inFlight.contains(id)) {
+        iterator.remove();
+        inFlight.add(id);
+        batch.add(id);
+      }
+    }
+    return batch;
+  }
+
+  private void indexTopic(Integer topicId) {
+    try {
+      postIndexer.indexTopic(topicId);
+    } catch (RuntimeException e) {
+      failed.incrementAndGet();
+      logger.error("index posts of topic " + topicId + " failed", e);
+    }
+  }
+
+  /**
+   * Reload posts, index them or purge deleted and missing ones,
+   * the same as {@link NonDeletePostInterceptor} would do.
+   */
+  private void index(List<Integer> ids) {
+    try {
+      transactionTemplate.execute(status -> {
+        FullTextSession fullTextSession = Search.getFullTextSession(
+            entityManager.unwrap(Session.class));
+        fullTextSession.setHibernateFlushMode(FlushMode.MANUAL);
+        fullTextSession.setCacheMode(CacheMode.IGNORE);
+
+        Set<Integer> purged = new HashSet<>(ids);
+        fullTextSession.createQuery(BATCH_QUERY, Post.class)
+            .setParameter("ids", ids)
+            .setReadOnly(true)
+            .getResultList()
+            .forEach(post -> {
+              if (post.getDelete() || post.getTopic().getDelete()) {
+                fullTextSession.purge(Post.class, post.getId());
+              } else {
+                purged.remove(post.getId());
+                fullTextSession.index(post);
+              }
+            });
+        purged.forEach(id -> fullTextSession.purge(Post.class, id));
+        fullTextSession.flushToIndexes();
+        return null;
+      });
+      indexed.addAndGet(ids.size());
+      SearchIndexGeneration.increase();
+    } catch (RuntimeException e) {
+      failed.addAndGet(ids.size());
+      logger.error("index posts " + ids + " failed", e);
+    }
+  }
+
+  private static class Task {
+
+    private final Integer topicId;
+    private final List<Integer> postIds;
+
+    private Task(Integer topicId, List<Integer> postIds) {
+      this.topicId = topicId;
+      this.postIds = postIds;
+    }
+  }
+}
@@ -0,0 +1,538 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zaxxer.hikari.HikariDataSource;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.TermQuery;
+import org.bicarb.core.forum.domain.Post;
+import org.bicarb.core.forum.domain.Topic;
+import org.bicarb.core.forum.repository.PostRepository;
+import org.bicarb.core.forum.search.IndexingProgress.State;
+import org.bicarb.core.system.config.SearchProperties;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.hibernate.search.FullTextSession;
+import org.hibernate.search.Search;
+import org.hibernate.search.engine.ProjectionConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Partitioned post indexer.
+ * Splits the post id range into partitions, each partition is loaded and indexed
+ * on a pool of {@link SearchProperties.Rebuild#getThreads()} threads, in id ranges of a few
+ * batches, one transaction each. After each range the partition records its last id as an
+ * {@link IndexCheckpoint}, so an interrupted job can be resumed instead of started over.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class PostIndexer {
+
+  private static final Logger logger = LoggerFactory.getLogger(PostIndexer.class);
+
+  private static final String PARTITION_QUERY = "select p from Post p"
+      + " join fetch p.topic t join fetch p.author"
+      + " left join fetch t.categories c left join fetch c.parent"  // PostFilterBridge
+      + " where p.id between :fromId and :toId";
+  private static final String COUNT_QUERY = "select count(p) from Post p"
+      + " where p.id between :fromId and :toId";
+  private static final String TOPIC_QUERY = "select p from Post p"
+      + " join fetch p.topic t join fetch p.author"
+      + " where t.id = :topicId and t.delete = false and p.delete = false"
+      + " order by p.id";
+  private static final String TOPICS_QUERY = "select t from Topic t"
+      + " where t.delete = false order by t.id";
+  /**
+   * Embedded id of topic, see {@link BicarbSearchMappingFactory}.
+   */
+  private static final String TOPIC_ID_FIELD = "topic.id";
+  private static final String ORDER_CLAUSE = " order by p.id";
+  private static final int BATCHES_PER_TRANSACTION = 10;
+  private static final String SINCE_CLAUSE = " and (p.createAt >= :since"
+      + " or p.lastEditAt >= :since)";
+
+  private final EntityManager entityManager;
+  private final DataSource dataSource;
+  private final PostRepository postRepository;
+  private final IndexCheckpointRepository checkpointRepository;
+  private final TransactionTemplate transactionTemplate;
+  private final TransactionTemplate writeTransactionTemplate;
+  private final SearchProperties.Rebuild properties;
+
+  private volatile Job job;
+
+  /** Constructor. */
+  @Autowired
+  public PostIndexer(
+      EntityManager entityManager,
+      DataSource dataSource,
+      PostRepository postRepository,
+      IndexCheckpointRepository checkpointRepository,
+      PlatformTransactionManager transactionManager,
+      SearchProperties searchProperties) {
+    this.entityManager = entityManager;
+    this.dataSource = dataSource;
+    this.postRepository = postRepository;
+    this.checkpointRepository = checkpointRepository;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.transactionTemplate.setReadOnly(true);
+    this.writeTransactionTemplate = new TransactionTemplate(transactionManager);
+    this.writeTransactionTemplate
+        .setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.properties = searchProperties.getRebuild();
+  }
+
+  /**
+   * Index all posts and topic titles, block until every partition is finished.
+   * @param purge purge all post and topic documents first
+   * @return true if all partitions and topic titles succeed
+   */
+  public boolean indexAll(boolean purge) {
+    Integer minId = postRepository.findMinId();
+    Integer maxId = postRepository.findMaxId();
+    boolean success = run(purge, null, partition(minId, maxId));
+    return indexTopics(purge) && success;
+  }
+
+  /**
+   * Index posts created or edited since the given instant, block until finished.
+   * @param since inclusive
+   * @return true if all partitions succeed
+   */
+  public boolean indexSince(Instant since) {
+    Integer minId = postRepository.findMinIdModifiedSince(since);
+    Integer maxId = postRepository.findMaxIdModifiedSince(since);
+    return run(false, since, partition(minId, maxId));
+  }
+
+  /**
+   * Resume the unfinished partitions of an interrupted job, block until finished.
+   * @return true if all partitions succeed or there is nothing to resume
+   */
+  public boolean resume() {
+    List<IndexCheckpoint> checkpoints = checkpointRepository.findAll();
+    List<Partition> partitions = checkpoints.stream()
+        .filter(checkpoint -> !checkpoint.getDone())
+        .map(checkpoint -> new Partition(checkpoint.getFromId(), checkpoint.getToId(),
+            checkpoint.getLastId() == null ? checkpoint.getFromId() : checkpoint.getLastId() + 1))
+        .filter(partition -> partition.startId <= partition.toId)
+        .collect(Collectors.toList());
+    if (partitions.isEmpty()) {
+      if (!checkpoints.isEmpty()) {
+        writeCheckpoint(checkpointRepository::deleteAllInBatch);
+      }
+      return true;
+    }
+
+    Instant since = checkpoints.get(0).getSince();
+    logger.info("Resume {} unfinished index partitions, since: {}.", partitions.size(), since);
+    return run(false, since, partitions);
+  }
+
+  private boolean run(boolean purge, Instant since, List<Partition> partitions) {
+    long total = transactionTemplate.execute(status -> partitions.stream()
+        .mapToLong(partition -> count(partition, since))
+        .sum());
+    Job current = new Job(purge, since, total, partitions);
+    job = current;
+
+    if (purge) {
+      purgeAll();
+    }
+    saveCheckpoints(since, partitions);
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads(),
+        new ThreadFactoryBuilder().setNameFormat("post-indexer-%d").setDaemon(true).build());
+    try {
+      List<Future<?>> futures = current.partitions.stream()
+          .map(partition -> executor.submit(() -> indexPartition(current, partition)))
+          .collect(Collectors.toList());
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.error("index posts interrupted", e);
+    } catch (ExecutionException e) {
+      logger.error("index posts failed", e);
+    } finally {
+      executor.shutdownNow();
+      current.finishAt = Instant.now();
+    }
+
+    boolean success = current.partitions.stream()
+        .allMatch(partition -> partition.state == State.DONE);
+    if (success) {
+      writeCheckpoint(checkpointRepository::deleteAllInBatch);
+    }
+    return success;
+  }
+
+  /**
+   * Bring the topic document and all post documents of a topic up to date,
+   * posts are streamed and indexed in batches.
+   * If the topic is deleted or missing, purge the topic document and the posts
+   * found on the topic id term instead.
+   * @return indexed posts, 0 if purged
+   */
+  public long indexTopic(Integer topicId) {
+    return transactionTemplate.execute(status -> {
+      FullTextSession fullTextSession = getFullTextSession();
+      fullTextSession.setHibernateFlushMode(FlushMode.MANUAL);
+      fullTextSession.setCacheMode(CacheMode.IGNORE);
+
+      Topic topic = fullTextSession.get(Topic.class, topicId);
+      if (topic == null || topic.getDelete()) {
+        fullTextSession.purge(Topic.class, topicId);
+        purgeTopic(fullTextSession, topicId);
+        return 0L;
+      }
+      fullTextSession.index(topic);  // title suggestion
+
+      int batchSize = properties.getBatchSize();
+      long count = 0;
+      try (ScrollableResults results = fullTextSession
+          .createQuery(TOPIC_QUERY, Post.class)
+          .setParameter("topicId", topicId)
+          .setFetchSize(batchSize)
+          .setCacheMode(CacheMode.IGNORE)
+          .setReadOnly(true)
+          .scroll(ScrollMode.FORWARD_ONLY)) {
+        while (results.next()) {
+          fullTextSession.index(results.get(0));
+          if (++count % batchSize == 0) {
+            fullTextSession.flushToIndexes();
+            fullTextSession.clear();
+          }
+        }
+        fullTextSession.flushToIndexes();
+      }
+      SearchIndexGeneration.increase();
+      logger.debug("Indexed {} posts of topic {}.", count, topicId);
+      return count;
+    });
+  }
+
+  /**
+   * Index all non-deleted topics for title suggestion, topics are small so no partition.
+   */
+  private boolean indexTopics(boolean purge) {
+    try {
+      long count = transactionTemplate.execute(status -> {
+        FullTextSession fullTextSession = getFullTextSession();
+        fullTextSession.setHibernateFlushMode(FlushMode.MANUAL);
+        fullTextSession.setCacheMode(CacheMode.IGNORE);
+        if (purge) {
+          fullTextSession.purgeAll(Topic.class);
+          fullTextSession.flushToIndexes();
+        }
+
+        int batchSize = properties.getBatchSize();
+        long indexed = 0;
+        try (ScrollableResults results = fullTextSession
+            .createQuery(TOPICS_QUERY, Topic.class)
+            .setFetchSize(batchSize)
+            .setCacheMode(CacheMode.IGNORE)
+            .setReadOnly(true)
+            .scroll(ScrollMode.FORWARD_ONLY)) {
+          while (results.next()) {
+            fullTextSession.index(results.get(0));
+            if (++indexed % batchSize == 0) {
+              fullTextSession.flushToIndexes();
+              fullTextSession.clear();
+            }
+          }
+          fullTextSession.flushToIndexes();
+        }
+        return indexed;
+      });
+      logger.info("Indexed {} topic titles.", count);
+      return true;
+    } catch (RuntimeException e) {
+      logger.error("index topic titles failed", e);
+      return false;
+    }
+  }
+
+  /**
+   * Purge post documents by the ids found on the topic id term,
+   * posts of a missing topic are gone from the database already.
+   */
+  private void purgeTopic(FullTextSession fullTextSession, Integer topicId) {
+    List<?> rows = fullTextSession
+        .createFullTextQuery(new TermQuery(new Term(TOPIC_ID_FIELD, topicId.toString())),
+            Post.class)
+        .setProjection(ProjectionConstants.ID)
+        .list();
+    for (Object row : rows) {
+      fullTextSession.purge(Post.class, (Integer) ((Object[]) row)[0]);
+    }
+    fullTextSession.flushToIndexes();
+    SearchIndexGeneration.increase();
+    logger.debug("Purged {} posts of topic {}.", rows.size(), topicId);
+  }
+
+  /**
+   * Progress of the running or last finished job.
+   */
+  public Optional<IndexingProgress> getProgress() {
+    Job current = job;
+    return current == null ? Optional.empty() : Optional.of(current.snapshot());
+  }
+
+  private void purgeAll() {
+    transactionTemplate.execute(status -> {
+      FullTextSession fullTextSession = getFullTextSession();
+      fullTextSession.purgeAll(Post.class);
+      fullTextSession.flushToIndexes();
+      SearchIndexGeneration.increase();
+      return null;
+    });
+    logger.info("Purged all post documents.");
+  }
+
+  private void saveCheckpoints(Instant since, List<Partition> partitions) {
+    Instant now = Instant.now();
+    writeTransactionTemplate.execute(status -> {
+      checkpointRepository.deleteAllInBatch();
+      checkpointRepository.saveAll(partitions.stream()
+          .map(partition -> IndexCheckpoint.builder()
+              .fromId(partition.fromId)
+              .toId(partition.toId)
+              .lastId(partition.startId == partition.fromId ? null : partition.startId - 1)
+              .done(false)
+              .since(since)
+              .createAt(now)
+              .build())
+          .collect(Collectors.toList()));
+      return null;
+    });
+  }
+
+  private void writeCheckpoint(Runnable runnable) {
+    try {
+      writeTransactionTemplate.execute(status -> {
+        runnable.run();
+        return null;
+      });
+    } catch (RuntimeException e) {
+      // a stale checkpoint only makes a later resume index some posts twice
+      logger.warn("write index checkpoint failed", e);
+    }
+  }
+
+  private long count(Partition partition, Instant since) {
+    return createQuery(COUNT_QUERY, "", Long.class, partition.startId, partition.toId, since)
+        .getSingleResult();
+  }
+
+  /**
+   * Restrict to the id range, and to posts changed since the instant if present.
+   * @param orderClause appended after the restrictions
+   */
+  private <T> Query<T> createQuery(String hql, String orderClause, Class<T> type,
+      int fromId, int toId, Instant since) {
+    Query<T> query = getFullTextSession()
+        .createQuery((since == null ? hql : hql + SINCE_CLAUSE) + orderClause, type)
+        .setParameter("fromId", fromId)
+        .setParameter("toId", toId);
+    return since == null ? query : query.setParameter("since", since);
+  }
+
+  /**
+   * Index a partition in id ranges of {@link #BATCHES_PER_TRANSACTION} batches, each range in
+   * its own transaction and checkpointed after it, so a thread never holds two connections.
+   */
+  private void indexPartition(Job current, Partition partition) {
+    partition.state = State.RUNNING;
+    try {
+      int batchSize = properties.getBatchSize();
+      long chunkSize = (long) batchSize * BATCHES_PER_TRANSACTION;
+      for (long from = partition.startId; from <= partition.toId; from += chunkSize) {
+        int fromId = (int) from;
+        int toId = (int) Math.min(from + chunkSize - 1, partition.toId);
+        transactionTemplate.execute(status -> {
+          FullTextSession fullTextSession = getFullTextSession();
+          fullTextSession.setHibernateFlushMode(FlushMode.MANUAL);
+          fullTextSession.setCacheMode(CacheMode.IGNORE);
+
+          try (ScrollableResults results = createQuery(
+              PARTITION_QUERY, ORDER_CLAUSE, Post.class, fromId, toId, current.since)
+              .setFetchSize(batchSize)
+              .setCacheMode(CacheMode.IGNORE)
+              .setReadOnly(true)
+              .scroll(ScrollMode.FORWARD_ONLY)) {
+            int pending = 0;
+            while (results.next()) {
+              fullTextSession.index(results.get(0));
+              if (++pending == batchSize) {
+                flush(fullTextSession, current, partition, pending);
+                pending = 0;
+              }
+            }
+            flush(fullTextSession, current, partition, pending);
+          }
+          return null;
+        });
+        writeCheckpoint(() -> checkpointRepository.updateLastId(partition.fromId, toId));
+      }
+      writeCheckpoint(() -> checkpointRepository.markDone(partition.fromId));
+      partition.state = State.DONE;
+    } catch (RuntimeException e) {
+      partition.state = State.FAILED;
+      logger.error("index partition [" + partition.fromId + ", " + partition.toId + "] failed", e);
+    }
+  }
+
+  private void flush(FullTextSession fullTextSession, Job current, Partition partition,
+      int count) {
+    fullTextSession.flushToIndexes();  // apply changes to indexes
+    fullTextSession.clear();  // free memory since the queue is processed
+    if (count > 0) {
+      SearchIndexGeneration.increase();
+    }
+    partition.done.addAndGet(count);
+    current.done.addAndGet(count);
+  }
+
+  /**
+   * Each thread holds one connection at a time, leave at least half of the pool to requests.
+   */
+  private int threads() {
+    int threads = properties.getThreads();
+    if (dataSource instanceof HikariDataSource) {
+      int max = Math.max(1, ((HikariDataSource) dataSource).getMaximumPoolSize() / 2);
+      if (threads > max) {
+        logger.warn("Index with {} threads instead of {}, half of the connection pool.",
+            max, threads);
+        return max;
+      }
+    }
+    return threads;
+  }
+
+  private FullTextSession getFullTextSession() {
+    return Search.getFullTextSession(entityManager.unwrap(Session.class));
+  }
+
+  private List<Partition> partition(Integer minId, Integer maxId) {
+    List<Partition> partitions = new ArrayList<>();
+    if (minId == null || maxId == null) {
+      return partitions;
+    }
+    long size = properties.getPartitionSize();
+    for (long from = minId; from <= maxId; from += size) {
+      partitions.add(new Partition((int) from, (int) Math.min(from + size - 1, maxId), (int) from));
+    }
+    return partitions;
+  }
+
+  private static class Job {
+
+    private final boolean purge;
+    private final Instant since;
+    private final long total;
+    private final List<Partition> partitions;
+    private final AtomicLong done = new AtomicLong();
+    private final Instant startAt = Instant.now();
+    private volatile Instant finishAt;
+
+    private Job(boolean purge, Instant since, long total, List<Partition> partitions) {
+      this.purge = purge;
+      this.since = since;
+      this.total = total;
+      this.partitions = partitions;
+    }
+
+    private IndexingProgress snapshot() {
+      long doneCount = done.get();
+      Instant end = finishAt == null ? Instant.now() : finishAt;
+      double seconds = Math.max(Duration.between(startAt, end).toMillis(), 1) / 1000d;
+      double docsPerSecond = doneCount / seconds;
+      Long etaSeconds = null;
+      if (finishAt != null) {
+        etaSeconds = 0L;
+      } else if (docsPerSecond > 0) {
+        etaSeconds = (long) (Math.max(total - doneCount, 0) / docsPerSecond);
+      }
+
+      return IndexingProgress.builder()
+          .running(finishAt == null)
+          .purge(purge)
+          .since(since)
+          .total(total)
+          .done(doneCount)
+          .docsPerSecond(docsPerSecond)
+          .etaSeconds(etaSeconds)
+          .startAt(startAt)
+          .finishAt(finishAt)
+          .partitions(partitions.stream()
+              .map(partition -> IndexingProgress.Partition.builder()
+                  .fromId(partition.fromId)
+                  .toId(partition.toId)
+                  .state(partition.state)
+                  .done(partition.done.get())
+                  .build())
+              .collect(Collectors.toList()))
+          .build();
+    }
+  }
+
+  private static class Partition {
+
+    private final int fromId;
+    private final int toId;
+    /**
+     * First id to index, greater than fromId when resumed.
+     */
+    private final int startId;
+    private final AtomicLong done = new AtomicLong();
+    private volatile State state = State.PENDING;
+
+    private Partition(int fromId, int toId, int startId) {
+      this.fromId = fromId;
+      this.toId = toId;
+      this.startId = startId;
+    }
+  }
+}
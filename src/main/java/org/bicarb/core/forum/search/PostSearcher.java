@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.FilterLeafCollector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.MultiCollector;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.TimeLimitingCollector;
+import org.apache.lucene.search.TimeLimitingCollector.TimeExceededException;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.bicarb.core.forum.exception.UnprocessableEntityException;
+import org.bicarb.core.forum.search.SearchResult.TotalRelation;
+import org.bicarb.core.system.config.SearchProperties;
+import org.bicarb.core.system.config.SearchProperties.Count.Mode;
+import org.hibernate.search.exception.SearchException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Search the post index with a plain lucene searcher, then hydrate and highlight the hits
+ * while the same reader is open. Only shards in the create time range are searched.
+ * Unlike {@link org.hibernate.search.jpa.FullTextQuery}, matches may be collected only up
+ * to {@link SearchProperties.Count#getCap()}, and deep pages are collected after a cursor
+ * instead of ranking every hit before the offset.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class PostSearcher {
+
+  private static final Logger logger = LoggerFactory.getLogger(PostSearcher.class);
+
+  private static final long TIMEOUT_MILLIS = 5000L;
+
+  private final PostShards postShards;
+  private final SearchHydrator searchHydrator;
+  private final SearchHighlighter searchHighlighter;
+  private final SearchProperties.Count count;
+  private final SearchProperties.Paging paging;
+
+  /** Constructor. */
+  @Autowired
+  public PostSearcher(
+      PostShards postShards,
+      SearchHydrator searchHydrator,
+      SearchHighlighter searchHighlighter,
+      SearchProperties searchProperties) {
+    this.postShards = postShards;
+    this.searchHydrator = searchHydrator;
+    this.searchHighlighter = searchHighlighter;
+    this.count = searchProperties.getCount();
+    this.paging = searchProperties.getPaging();
+  }
+
+  /**
+   * Search a page of posts.
+   * @param filter nullable, if present posts are filtered and category facets are counted
+   * @param after nullable, if present the page number is ignored
+   * @param content whether load `raw` and `cooked` of posts
+   * @throws UnprocessableEntityException if the offset exceeds
+   *     {@link SearchProperties.Paging#getMaxOffset()}
+   */
+  public SearchResult search(
+      Query query, SearchFilter filter, Pageable pageable, SearchCursor after,
+      boolean content) {
+    int offset = after == null ? (int) pageable.getOffset() : 0;
+    if (offset > paging.getMaxOffset()) {
+      throw new UnprocessableEntityException("Offset " + offset + " exceeds "
+          + paging.getMaxOffset() + ", page with `after` cursor instead.");
+    }
+    int size = pageable.getPageSize();
+
+    // shards out of the create time range are skipped
+    IndexReader reader = filter == null
+        ? postShards.open(null, null)
+        : postShards.open(filter.getCreateAfter(), filter.getCreateBefore());
+    if (reader == null) {
+      SearchResult empty = searchHydrator.hydrate(Collections.emptyList(), 0, content);
+      empty.setTotalRelation(TotalRelation.EQ);
+      empty.setCategoryFacets(filter == null ? null : Collections.emptyMap());
+      return empty;
+    }
+    try {
+      IndexSearcher searcher = new IndexSearcher(reader);
+      TopScoreDocCollector top = TopScoreDocCollector.create(
+          offset + size, after == null ? null : toScoreDoc(searcher, after));
+      CategoryFacetCollector facets = filter == null ? null : new CategoryFacetCollector();
+      CappedCollector capped = new CappedCollector(MultiCollector.wrap(top, facets),
+          count.getMode() == Mode.EXACT ? Integer.MAX_VALUE : count.getCap());
+      try {
+        searcher.search(filter == null ? query : filter(query, filter), new TimeLimitingCollector(
+            capped, TimeLimitingCollector.getGlobalCounter(), TIMEOUT_MILLIS));
+      } catch (TimeExceededException e) {
+        logger.warn("search timeout, return partial results: {}", query);
+      }
+
+      TopDocs topDocs = top.topDocs(offset, size);
+      List<Integer> ids = new ArrayList<>(topDocs.scoreDocs.length);
+      for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+        ids.add(PostDocuments.postId(searcher, scoreDoc.doc));
+      }
+      logger.debug("get {} lucene results: {}", top.getTotalHits(), ids);
+
+      SearchResult result = searchHydrator.hydrate(ids, total(capped, top, reader), content);
+      result.setTotalRelation(capped.terminatedAt < 0 ? TotalRelation.EQ
+          : count.getMode() == Mode.APPROXIMATE ? TotalRelation.APPROX : TotalRelation.GTE);
+      if (facets != null) {
+        result.setCategoryFacets(facets.sorted());
+      }
+      if (ids.size() == size) {
+        ScoreDoc last = topDocs.scoreDocs[topDocs.scoreDocs.length - 1];
+        result.setCursor(new SearchCursor(last.score, ids.get(ids.size() - 1)).toString());
+      }
+      searchHighlighter.highlight(searcher, query, result.getPosts());
+      return result;
+    } catch (IOException e) {
+      throw new SearchException("Unable to query Lucene index", e);
+    } finally {
+      postShards.close(reader);
+    }
+  }
+
+  private Query filter(Query query, SearchFilter filter) {
+    BooleanQuery.Builder builder = new BooleanQuery.Builder().add(query, Occur.MUST);
+    if (filter.getCategoryId() != null) {
+      builder.add(NumericRangeQuery.newIntRange(PostFilterBridge.CATEGORY_ID,
+          filter.getCategoryId(), filter.getCategoryId(), true, true), Occur.FILTER);
+    }
+    if (filter.getAuthorId() != null) {
+      builder.add(NumericRangeQuery.newIntRange(PostFilterBridge.AUTHOR_ID,
+          filter.getAuthorId(), filter.getAuthorId(), true, true), Occur.FILTER);
+    }
+    if (filter.getCreateAfter() != null || filter.getCreateBefore() != null) {
+      builder.add(NumericRangeQuery.newLongRange(PostFilterBridge.CREATE_AT,
+          filter.getCreateAfter() == null ? null : filter.getCreateAfter().toEpochMilli(),
+          filter.getCreateBefore() == null ? null : filter.getCreateBefore().toEpochMilli(),
+          true, false), Occur.FILTER);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Hits ranked after the cursor, a missing post skips all hits of the same score.
+   */
+  private ScoreDoc toScoreDoc(IndexSearcher searcher, SearchCursor after) throws IOException {
+    int docId = PostDocuments.docId(searcher, after.getPostId());
+    return new ScoreDoc(docId < 0 ? Integer.MAX_VALUE : docId, after.getScore());
+  }
+
+  private int total(CappedCollector capped, TopScoreDocCollector top, IndexReader reader) {
+    if (capped.terminatedAt < 0 || count.getMode() != Mode.APPROXIMATE) {
+      return top.getTotalHits();
+    }
+    // matches are assumed evenly distributed over document numbers
+    double estimate = (double) top.getTotalHits() * reader.maxDoc() / (capped.terminatedAt + 1);
+    return (int) Math.min(Integer.MAX_VALUE, Math.round(estimate));
+  }
+
+  /**
+   * Count collected matches per category from doc values, ancestors included.
+   */
+  private static class CategoryFacetCollector extends SimpleCollector {
+
+    private final Map<Integer, Integer> counts = new HashMap<>();
+    private SortedNumericDocValues values;
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+      values = DocValues.getSortedNumeric(context.reader(), PostFilterBridge.CATEGORY_ID);
+    }
+
+    @Override
+    public void collect(int doc) {
+      values.setDocument(doc);
+      for (int i = 0; i < values.count(); i++) {
+        counts.merge((int) values.valueAt(i), 1, Integer::sum);
+      }
+    }
+
+    @Override
+    public boolean needsScores() {
+      return false;
+    }
+
+    /**
+     * Counts in descending order.
+     */
+    private Map<Integer, Integer> sorted() {
+      Map<Integer, Integer> sorted = new LinkedHashMap<>();
+      counts.entrySet().stream()
+          .sorted(Map.Entry.<Integer, Integer>comparingByValue().reversed())
+          .forEach(entry -> sorted.put(entry.getKey(), entry.getValue()));
+      return sorted;
+    }
+  }
+
+  /**
+   * Terminate collection after `cap` matches, in document order.
+   */
+  private static class CappedCollector extends FilterCollector {
+
+    private final int cap;
+    private int collected;
+    /**
+     * Document number of the last collected match if terminated, otherwise -1.
+     */
+    private int terminatedAt = -1;
+
+    private CappedCollector(Collector in, int cap) {
+      super(in);
+      this.cap = cap;
+    }
+
+    @Override
+    public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+      if (terminatedAt >= 0) {
+        throw new CollectionTerminatedException();
+      }
+      return new FilterLeafCollector(super.getLeafCollector(context)) {
+        @Override
+        public void collect(int doc) throws IOException {
+          super.collect(doc);
+          if (++collected >= cap) {
+            terminatedAt = context.docBase + doc;
+            throw new CollectionTerminatedException();
+          }
+        }
+      };
+    }
+  }
+}
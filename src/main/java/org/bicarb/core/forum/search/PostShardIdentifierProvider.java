@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import java.io.File;
+import java.io.Serializable;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
+import org.hibernate.search.spi.BuildContext;
+import org.hibernate.search.store.ShardIdentifierProviderTemplate;
+
+/**
+ * Shard the post index by the period of `createAt`, e.g. `posts.2018` or `posts.2018-05`.
+ * A post never moves between shards, so old shards only receive edits of old posts.
+ * Configured as `hibernate.search.posts.sharding_strategy`, with
+ * `hibernate.search.posts.sharding_strategy.period`, `year` (default) or `month`, and
+ * `hibernate.search.posts.sharding_strategy.index_base`, the same as `indexBase`.
+ *
+ * @author olOwOlo
+ */
+public class PostShardIdentifierProvider extends ShardIdentifierProviderTemplate {
+
+  public static final String PERIOD_PROPERTY = "period";
+  /**
+   * Shard properties are masked by `sharding_strategy`, `indexBase` is not visible.
+   */
+  public static final String INDEX_BASE_PROPERTY = "index_base";
+
+  private Period period;
+
+  @Override
+  protected Set<String> loadInitialShardNames(Properties properties, BuildContext buildContext) {
+    period = Period.valueOf(
+        properties.getProperty(PERIOD_PROPERTY, Period.YEAR.name()).toUpperCase(Locale.ROOT));
+
+    // shards are created on demand, reopen the existing ones and the current one
+    Set<String> shards = new HashSet<>();
+    shards.add(period.shardId(Instant.now()));
+    String prefix = BicarbSearchMappingFactory.POST_INDEX_NAME + ".";
+    File[] directories = new File(properties.getProperty(INDEX_BASE_PROPERTY, "."))
+        .listFiles(file -> file.isDirectory() && file.getName().startsWith(prefix));
+    if (directories != null) {
+      for (File directory : directories) {
+        shards.add(directory.getName().substring(prefix.length()));
+      }
+    }
+    return shards;
+  }
+
+  @Override
+  public String getShardIdentifier(
+      Class<?> entityType, Serializable id, String idAsString, Document document) {
+    IndexableField createAt = document.getField(PostFilterBridge.CREATE_AT);
+    String shardId = period.shardId(createAt == null
+        ? Instant.now() : Instant.ofEpochMilli(createAt.numericValue().longValue()));
+    addShard(shardId);
+    return shardId;
+  }
+
+  /**
+   * Whether posts created in [from, to) may be in the shard.
+   * @param from nullable, inclusive
+   * @param to nullable, exclusive
+   */
+  public static boolean overlaps(String shardId, Instant from, Instant to) {
+    Period shardPeriod = Period.of(shardId);
+    return (from == null || shardPeriod.end(shardId).isAfter(from))
+        && (to == null || shardPeriod.start(shardId).isBefore(to));
+  }
+
+  /**
+   * Whether no post created from now on goes to the shard.
+   */
+  public static boolean isClosed(String shardId) {
+    return !Period.of(shardId).end(shardId).isAfter(Instant.now());
+  }
+
+  public enum Period {
+    YEAR("yyyy"), MONTH("yyyy-MM");
+
+    private final String pattern;
+    private final DateTimeFormatter formatter;
+
+    Period(String pattern) {
+      this.pattern = pattern;
+      this.formatter = DateTimeFormatter.ofPattern(pattern).withZone(ZoneOffset.UTC);
+    }
+
+    /**
+     * Period of a shard id, by its format.
+     */
+    public static Period of(String shardId) {
+      return shardId.length() == YEAR.pattern.length() ? YEAR : MONTH;
+    }
+
+    public String shardId(Instant instant) {
+      return formatter.format(instant);
+    }
+
+    private Instant start(String shardId) {
+      return toDate(shardId).atStartOfDay(ZoneOffset.UTC).toInstant();
+    }
+
+    private Instant end(String shardId) {
+      LocalDate start = toDate(shardId);
+      return (this == YEAR ? start.plusYears(1) : start.plusMonths(1))
+          .atStartOfDay(ZoneOffset.UTC).toInstant();
+    }
+
+    private LocalDate toDate(String shardId) {
+      return this == YEAR
+          ? Year.parse(shardId).atDay(1)
+          : YearMonth.parse(shardId).atDay(1);
+    }
+  }
+}
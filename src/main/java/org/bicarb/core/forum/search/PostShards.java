@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import java.time.Instant;
+import java.util.Set;
+import javax.persistence.EntityManager;
+import org.apache.lucene.index.IndexReader;
+import org.bicarb.core.forum.domain.Post;
+import org.hibernate.search.SearchFactory;
+import org.hibernate.search.indexes.spi.IndexManager;
+import org.hibernate.search.jpa.Search;
+import org.hibernate.search.spi.SearchIntegrator;
+import org.hibernate.search.spi.impl.PojoIndexedTypeIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Shards of the post index, see {@link PostShardIdentifierProvider}.
+ * Readers are opened on the shards a create time range may hit only, and closed shards
+ * (periods in the past) are force merged into one segment regularly.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class PostShards {
+
+  private static final Logger logger = LoggerFactory.getLogger(PostShards.class);
+
+  private final EntityManager entityManager;
+
+  @Autowired
+  public PostShards(EntityManager entityManager) {
+    this.entityManager = entityManager;
+  }
+
+  /**
+   * Open a reader on the shards posts created in [from, to) may be in.
+   * The index is not sharded if its name has no shard id, then all of it is opened.
+   * @param from nullable, inclusive
+   * @param to nullable, exclusive
+   * @return null if no shard
+   */
+  public IndexReader open(Instant from, Instant to) {
+    SearchFactory searchFactory = getSearchFactory();
+    if (from == null && to == null) {
+      return searchFactory.getIndexReaderAccessor().open(Post.class);
+    }
+    String[] names = getIndexManagers().stream()
+        .map(IndexManager::getIndexName)
+        .filter(name -> shardId(name) == null
+            || PostShardIdentifierProvider.overlaps(shardId(name), from, to))
+        .toArray(String[]::new);
+    logger.debug("open post shards {} for [{}, {})", names, from, to);
+    return names.length == 0 ? null : searchFactory.getIndexReaderAccessor().open(names);
+  }
+
+  public void close(IndexReader reader) {
+    getSearchFactory().getIndexReaderAccessor().close(reader);
+  }
+
+  /**
+   * Force merge closed shards having more than one segment, they only receive edits of
+   * old posts so the merge is rarely repeated.
+   */
+  @Scheduled(cron = "${bicarb.search.sharding.merge-cron}")
+  public void forceMergeClosedShards() {
+    for (IndexManager indexManager : getIndexManagers()) {
+      String shardId = shardId(indexManager.getIndexName());
+      if (shardId == null || !PostShardIdentifierProvider.isClosed(shardId)) {
+        continue;
+      }
+      IndexReader reader = indexManager.getReaderProvider().openIndexReader();
+      int segments;
+      try {
+        segments = reader.leaves().size();
+      } finally {
+        indexManager.getReaderProvider().closeIndexReader(reader);
+      }
+      if (segments > 1) {
+        logger.info("Force merge post shard {}, {} segments.", shardId, segments);
+        indexManager.optimize();
+      }
+    }
+  }
+
+  /**
+   * Shard id of an index name, null if not sharded.
+   */
+  private String shardId(String indexName) {
+    int separator = indexName.indexOf('.');
+    return separator < 0 ? null : indexName.substring(separator + 1);
+  }
+
+  private Set<IndexManager> getIndexManagers() {
+    return getSearchFactory().unwrap(SearchIntegrator.class)
+        .getIndexBinding(new PojoIndexedTypeIdentifier(Post.class))
+        .getIndexManagerSelector()
+        .all();
+  }
+
+  private SearchFactory getSearchFactory() {
+    return Search.getFullTextEntityManager(entityManager).getSearchFactory();
+  }
+}
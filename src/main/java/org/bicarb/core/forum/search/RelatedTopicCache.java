@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManager;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.bicarb.core.forum.domain.Post;
+import org.bicarb.core.forum.exception.ResourceNotFoundException;
+import org.bicarb.core.system.config.SearchProperties;
+import org.hibernate.search.jpa.Search;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.Cache.ValueWrapper;
+import org.springframework.cache.CacheManager;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Related topics, computed by a MoreLikeThis query on the first post of a topic.
+ * Relations are only computed and stored as {@link TopicRelation} in the background:
+ * active topics (recent {@link org.bicarb.core.forum.domain.Topic#getLastReplyAt()}) and
+ * topics requested without a fresh relation, which get the stored or empty result meanwhile.
+ * Ids and titles are served from cache `relatedTopic` in ehcache3.xml.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class RelatedTopicCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(RelatedTopicCache.class);
+
+  public static final String CACHE_NAME = "relatedTopic";
+
+  /**
+   * Posts fetched per related topic wanted, posts of one topic are merged.
+   */
+  private static final int CANDIDATES_PER_TOPIC = 4;
+  /**
+   * Max topics waiting for the next refresh run, more requests are dropped.
+   */
+  private static final int MAX_REQUESTED = 10000;
+
+  private static final String EXISTS_QUERY = "select count(t) from Topic t"
+      + " where t.id = :topicId and t.delete = false";
+
+  private static final String FIRST_POST_QUERY = "select p.id from Post p"
+      + " where p.topic.id = :topicId and p.index = 0";
+  private static final String POST_TOPIC_QUERY = "select p.id, t.id from Post p join p.topic t"
+      + " where p.id in :ids and p.delete = false and t.delete = false";
+  private static final String TITLE_QUERY = "select t.id, t.title from Topic t"
+      + " where t.id in :ids and t.delete = false";
+  private static final String STALE_QUERY = "select t.id from Topic t"
+      + " where t.delete = false and t.lastReplyAt >= :activeSince"
+      + " and not exists (select r.topicId from TopicRelation r"
+      + " where r.topicId = t.id and r.computeAt >= :freshSince)"
+      + " order by t.lastReplyAt desc";
+
+  private final EntityManager entityManager;
+  private final PostShards postShards;
+  private final TopicRelationRepository topicRelationRepository;
+  private final Cache cache;
+  private final TransactionTemplate transactionTemplate;
+  private final TransactionTemplate writeTransactionTemplate;
+  private final SearchProperties.Related properties;
+  private final Set<Integer> requested = ConcurrentHashMap.newKeySet();
+
+  /** Constructor. */
+  @Autowired
+  public RelatedTopicCache(
+      EntityManager entityManager,
+      PostShards postShards,
+      TopicRelationRepository topicRelationRepository,
+      CacheManager cacheManager,
+      PlatformTransactionManager transactionManager,
+      SearchProperties searchProperties) {
+    this.entityManager = entityManager;
+    this.postShards = postShards;
+    this.topicRelationRepository = topicRelationRepository;
+    this.cache = cacheManager.getCache(CACHE_NAME);
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setReadOnly(true);
+    this.writeTransactionTemplate = new TransactionTemplate(transactionManager);
+    this.writeTransactionTemplate
+        .setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.properties = searchProperties.getRelated();
+  }
+
+  /**
+   * Related non-deleted topics, most related first, nothing is written.
+   * Looked up in cache, then the stored relation, a missing or stale relation is
+   * computed by the next {@link #refreshActiveTopics()}.
+   * @throws ResourceNotFoundException if the topic is missing or deleted
+   */
+  @SuppressWarnings("unchecked")
+  public List<TopicSuggestion> get(Integer topicId) {
+    ValueWrapper cached = cache.get(topicId);
+    if (cached != null) {
+      return (List<TopicSuggestion>) cached.get();
+    }
+
+    Optional<TopicRelation> stored = transactionTemplate.execute(status -> {
+      long exists = entityManager.createQuery(EXISTS_QUERY, Long.class)
+          .setParameter("topicId", topicId)
+          .getSingleResult();
+      if (exists == 0) {
+        throw new ResourceNotFoundException();
+      }
+      return topicRelationRepository.findById(topicId);
+    });
+    Instant freshSince = Instant.now().minus(properties.getMaxAge());
+    if (!stored.filter(relation -> relation.getComputeAt().isAfter(freshSince)).isPresent()
+        && requested.size() < MAX_REQUESTED) {
+      requested.add(topicId);
+    }
+    List<TopicSuggestion> topics = titles(stored
+        .map(relation -> parse(relation.getRelatedIds()))
+        .orElse(Collections.emptyList()));
+    cache.put(topicId, topics);
+    return topics;
+  }
+
+  /**
+   * Titles or delete state of topics changed, cached titles may be stale.
+   */
+  public void clear() {
+    cache.clear();
+  }
+
+  /**
+   * Compute relations of requested topics, then stale relations of active topics,
+   * most recently replied first.
+   */
+  @Scheduled(fixedDelayString = "${bicarb.search.related.refresh-interval}")
+  public void refreshActiveTopics() {
+    Set<Integer> topicIds = new LinkedHashSet<>();
+    Iterator<Integer> iterator = requested.iterator();
+    while (iterator.hasNext() && topicIds.size() < properties.getBatchSize()) {
+      topicIds.add(iterator.next());
+      iterator.remove();
+    }
+    Instant now = Instant.now();
+    topicIds.addAll(transactionTemplate.execute(status -> entityManager
+        .createQuery(STALE_QUERY, Integer.class)
+        .setParameter("activeSince", now.minus(properties.getActiveWindow()))
+        .setParameter("freshSince", now.minus(properties.getMaxAge()))
+        .setMaxResults(properties.getBatchSize())
+        .getResultList()));
+    if (topicIds.isEmpty()) {
+      return;
+    }
+    for (Integer topicId : topicIds) {
+      try {
+        cache.put(topicId, titles(refresh(topicId)));
+      } catch (RuntimeException e) {
+        logger.warn("compute related topics of topic " + topicId + " failed", e);
+      }
+    }
+    logger.info("Refreshed related topics of {} topics.", topicIds.size());
+  }
+
+  /**
+   * Compute and store.
+   */
+  private List<Integer> refresh(Integer topicId) {
+    List<Integer> relatedIds = compute(topicId);
+    writeTransactionTemplate.execute(status -> topicRelationRepository.save(
+        TopicRelation.builder()
+            .topicId(topicId)
+            .relatedIds(relatedIds.stream().map(String::valueOf).collect(Collectors.joining(",")))
+            .computeAt(Instant.now())
+            .build()));
+    return relatedIds;
+  }
+
+  private List<Integer> compute(Integer topicId) {
+    return transactionTemplate.execute(status -> {
+      List<Integer> firstPost = entityManager.createQuery(FIRST_POST_QUERY, Integer.class)
+          .setParameter("topicId", topicId)
+          .getResultList();
+      if (firstPost.isEmpty()) {
+        return Collections.<Integer>emptyList();
+      }
+
+      List<Integer> postIds = searchLikePost(firstPost.get(0));
+      if (postIds.isEmpty()) {
+        return Collections.<Integer>emptyList();
+      }
+      Map<Integer, Integer> topicByPost = new HashMap<>();
+      entityManager.createQuery(POST_TOPIC_QUERY, Object[].class)
+          .setParameter("ids", postIds)
+          .getResultList()
+          .forEach(row -> topicByPost.put((Integer) row[0], (Integer) row[1]));
+
+      Set<Integer> relatedIds = new LinkedHashSet<>();
+      for (Integer postId : postIds) {
+        Integer relatedId = topicByPost.get(postId);
+        if (relatedId != null && !relatedId.equals(topicId)) {
+          relatedIds.add(relatedId);
+          if (relatedIds.size() == properties.getSize()) {
+            break;
+          }
+        }
+      }
+      return new ArrayList<>(relatedIds);
+    });
+  }
+
+  private List<Integer> searchLikePost(Integer postId) {
+    Query query = Search.getFullTextEntityManager(entityManager)
+        .getSearchFactory()
+        .buildQueryBuilder()
+        .forEntity(Post.class)
+        .get()
+        .moreLikeThis()
+        .excludeEntityUsedForComparison()
+        .comparingField("topic.title").boostedTo(2f)
+        .andField("cooked")
+        .toEntityWithId(postId)
+        .createQuery();
+
+    IndexReader reader = postShards.open(null, null);
+    try {
+      IndexSearcher searcher = new IndexSearcher(reader);
+      List<Integer> postIds = new ArrayList<>();
+      for (ScoreDoc scoreDoc : searcher
+          .search(query, properties.getSize() * CANDIDATES_PER_TOPIC).scoreDocs) {
+        postIds.add(PostDocuments.postId(searcher, scoreDoc.doc));
+      }
+      return postIds;
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to query Lucene index", e);
+    } finally {
+      postShards.close(reader);
+    }
+  }
+
+  /**
+   * Titles of non-deleted topics, keep the order of ids.
+   */
+  private List<TopicSuggestion> titles(List<Integer> topicIds) {
+    if (topicIds.isEmpty()) {
+      return Collections.emptyList();
+    }
+    Map<Integer, String> titles = new HashMap<>();
+    transactionTemplate.execute(status -> {
+      entityManager.createQuery(TITLE_QUERY, Object[].class)
+          .setParameter("ids", topicIds)
+          .getResultList()
+          .forEach(row -> titles.put((Integer) row[0], (String) row[1]));
+      return null;
+    });
+    return topicIds.stream()
+        .filter(titles::containsKey)
+        .map(id -> new TopicSuggestion(id, titles.get(id)))
+        .collect(Collectors.toList());
+  }
+
+  private List<Integer> parse(String relatedIds) {
+    return Arrays.stream(relatedIds.split(","))
+        .filter(id -> !id.isEmpty())
+        .map(Integer::valueOf)
+        .collect(Collectors.toList());
+  }
+}
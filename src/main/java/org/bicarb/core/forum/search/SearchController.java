@@ -16,11 +16,17 @@
 
 package org.bicarb.core.forum.search;
 
-import com.yahoo.elide.ElideResponse;
 import io.swagger.annotations.ApiOperation;
+import java.io.IOException;
 import java.security.Principal;
+import java.time.Instant;
+import java.util.List;
+import javax.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -41,32 +47,103 @@ import org.springframework.web.bind.annotation.RestController;
 public class SearchController {
 
   private final SearchService searchService;
+  private final SearchResponseWriter searchResponseWriter;
 
   @Autowired
-  public SearchController(SearchService searchService) {
+  public SearchController(
+      SearchService searchService, SearchResponseWriter searchResponseWriter) {
     this.searchService = searchService;
+    this.searchResponseWriter = searchResponseWriter;
   }
 
+  /**
+   * Full text search, response is the same as `GET /api/post?include=topic,author`,
+   * plus highlighted fragments as `highlights` of posts and matches per category
+   * as `meta.facets.categories`.
+   * @param category posts in the category or its descendants
+   * @param author posts of the user
+   * @param from posts created at or after
+   * @param to posts created before
+   * @param content false to omit `raw` and `cooked` of posts
+   * @param after `meta.page.cursor` of the previous page, required past
+   *     `bicarb.search.paging.max-offset`
+   */
   @GetMapping(value = "/search", produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<String> search(
+  public void search(
       @RequestParam String q,
+      @RequestParam(required = false) Integer category,
+      @RequestParam(required = false) Integer author,
+      @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE_TIME) Instant from,
+      @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE_TIME) Instant to,
       @RequestParam(defaultValue = "1") Integer page,
       @RequestParam(defaultValue = "20") Integer size,
-      Principal auth) {
-    ElideResponse elideResponse = searchService
-        .search(q, PageRequest.of(page - 1, size), auth);
-    return ResponseEntity.status(elideResponse.getResponseCode()).body(elideResponse.getBody());
+      @RequestParam(defaultValue = "true") Boolean content,
+      @RequestParam(required = false) String after,
+      Principal auth,
+      HttpServletResponse response) throws IOException {
+    SearchFilter filter = SearchFilter.builder()
+        .categoryId(category)
+        .authorId(author)
+        .createAfter(from)
+        .createBefore(to)
+        .build();
+    SearchResult result = searchService
+        .search(q, filter, PageRequest.of(page - 1, size), after, content);
+    writeResult(result, auth, content, response);
   }
 
+  /**
+   * Posts like the given post.
+   * @param content false to omit `raw` and `cooked` of posts
+   * @param after `meta.page.cursor` of the previous page, required past
+   *     `bicarb.search.paging.max-offset`
+   */
   @GetMapping(value = "/search/{postId}/relate", produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<String> searchRelate(
+  public void searchRelate(
       @PathVariable Integer postId,
       @RequestParam(defaultValue = "1") Integer page,
       @RequestParam(defaultValue = "20") Integer size,
-      Principal auth) {
-    ElideResponse elideResponse = searchService
-        .searchMoreLikeThis(postId, PageRequest.of(page - 1, size), auth);
-    return ResponseEntity.status(elideResponse.getResponseCode()).body(elideResponse.getBody());
+      @RequestParam(defaultValue = "true") Boolean content,
+      @RequestParam(required = false) String after,
+      Principal auth,
+      HttpServletResponse response) throws IOException {
+    SearchResult result = searchService
+        .searchMoreLikeThis(postId, PageRequest.of(page - 1, size), after, content);
+    writeResult(result, auth, content, response);
+  }
+
+  /**
+   * Typeahead suggestion, ids and titles of topics matching the typed prefix.
+   */
+  @GetMapping(value = "/search/suggest", produces = MediaType.APPLICATION_JSON_VALUE)
+  public List<TopicSuggestion> suggest(
+      @RequestParam String q,
+      @RequestParam(defaultValue = "8") Integer size) {
+    return searchService.suggest(q, size);
+  }
+
+  /**
+   * Related topics of a topic, ids and titles.
+   */
+  @GetMapping(value = "/search/topic/{topicId}/related",
+      produces = MediaType.APPLICATION_JSON_VALUE)
+  public List<TopicSuggestion> searchRelatedTopics(@PathVariable Integer topicId) {
+    return searchService.searchRelatedTopics(topicId);
+  }
+
+  private void writeResult(SearchResult result, Principal auth, boolean content,
+      HttpServletResponse response) throws IOException {
+    response.setStatus(HttpStatus.OK.value());
+    response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+    searchResponseWriter.write(result, auth, content, response.getOutputStream());
+  }
+
+  @ApiOperation(value = "Search result cache statistics",
+      notes = "hits, misses and hit rate since startup, current index generation")
+  @PreAuthorize("hasAuthority('admin')")
+  @GetMapping(value = "/search/cache", produces = MediaType.APPLICATION_JSON_VALUE)
+  public SearchCacheStats cacheStats() {
+    return searchService.getCacheStats();
   }
 
   @ApiOperation(value = "Whether rebuild is processing", notes = "true or false")
@@ -76,15 +153,56 @@ public class SearchController {
     return searchService.isIndexing();
   }
 
+  @ApiOperation(value = "Progress of the running or last finished rebuild",
+      notes = "documents done/total, docs per second, eta and per-partition state")
+  @PreAuthorize("hasAuthority('admin')")
+  @GetMapping(value = "/index/progress", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<IndexingProgress> indexingProgress() {
+    return searchService.getIndexingProgress()
+        .map(ResponseEntity::ok)
+        .orElseGet(() -> ResponseEntity.noContent().build());
+  }
+
+  @ApiOperation(value = "Async index queue status",
+      notes = "queue depth, lag of the oldest waiting post and counters")
+  @PreAuthorize("hasAuthority('admin')")
+  @GetMapping(value = "/index/queue", produces = MediaType.APPLICATION_JSON_VALUE)
+  public IndexQueueStatus indexQueueStatus() {
+    return searchService.getIndexQueueStatus();
+  }
+
+  @ApiOperation(value = "Search readiness",
+      notes = "503 until the analyzer dictionaries are loaded, timing of the warm-up")
+  @GetMapping(value = "/search/ready", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<AnalyzerWarmupStatus> searchReady() {
+    AnalyzerWarmupStatus status = searchService.getAnalyzerWarmupStatus();
+    return ResponseEntity
+        .status(status.getReady() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE)
+        .body(status);
+  }
+
   @ApiOperation(value = "Rebuild index",
-      notes = "if safe, then update all indexes, else delete all and rebuild")
+      notes = "if since, then update posts created or edited since then, "
+          + "else if safe, then update all indexes, else delete all and rebuild")
   @PreAuthorize("hasAuthority('admin')")
   @PostMapping(value = "/index/rebuild")
-  public void reBuildIndex(@RequestParam(required = false) Boolean safe) {
-    if (safe != null && safe) {
+  public void reBuildIndex(
+      @RequestParam(required = false) Boolean safe,
+      @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE_TIME) Instant since) {
+    if (since != null) {
+      searchService.incrementalReBuildIndex(since);
+    } else if (safe != null && safe) {
       searchService.safeReBuildIndex();
     } else {
       searchService.reBuildIndex();
     }
   }
+
+  @ApiOperation(value = "Resume an interrupted rebuild",
+      notes = "index the unfinished partitions recorded by checkpoints")
+  @PreAuthorize("hasAuthority('admin')")
+  @PostMapping(value = "/index/resume")
+  public void resumeReBuildIndex() {
+    searchService.resumeReBuildIndex();
+  }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.bicarb.core.forum.exception.UnprocessableEntityException;
+
+/**
+ * Search-after cursor, the score and post id of the last hit of a page.
+ * The post id is used instead of the lucene document number, which changes with the index.
+ *
+ * @author olOwOlo
+ */
+@AllArgsConstructor
+@Data
+public class SearchCursor {
+
+  private static final char SEPARATOR = '_';
+
+  private final float score;
+  private final Integer postId;
+
+  /**
+   * Parse a cursor returned as `meta.page.cursor`.
+   * @throws UnprocessableEntityException if malformed
+   */
+  public static SearchCursor parse(String cursor) {
+    int separator = cursor.lastIndexOf(SEPARATOR);
+    try {
+      return new SearchCursor(Float.parseFloat(cursor.substring(0, separator)),
+          Integer.valueOf(cursor.substring(separator + 1)));
+    } catch (RuntimeException e) {
+      throw new UnprocessableEntityException("Invalid search cursor: " + cursor);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return Float.toString(score) + SEPARATOR + postId;
+  }
+}
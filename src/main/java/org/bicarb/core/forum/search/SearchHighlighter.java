@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.BytesRef;
+import org.bicarb.core.forum.search.SearchResult.PostHit;
+import org.bicarb.core.system.config.SearchProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Highlight search hits from the term vector offsets of `cooked`, the document is not
+ * analyzed again. Fragments are cut from the stored cooked html around the densest matches,
+ * so neither offsets nor text come from the database, tags are stripped and matched terms
+ * are wrapped in `em`. Documents indexed before `cooked` was stored fall back to
+ * {@link PostHit#getCooked()}, which is null unless content is requested.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class SearchHighlighter {
+
+  private static final Logger logger = LoggerFactory.getLogger(SearchHighlighter.class);
+
+  private static final String COOKED_FIELD = "cooked";
+  private static final Set<String> STORED_FIELDS = Collections.singleton(COOKED_FIELD);
+  private static final String PRE_TAG = "<em>";
+  private static final String POST_TAG = "</em>";
+
+  private final SearchProperties.Highlight properties;
+
+  @Autowired
+  public SearchHighlighter(SearchProperties searchProperties) {
+    this.properties = searchProperties.getHighlight();
+  }
+
+  /**
+   * Set {@link PostHit#getHighlights()} of every post, hits without any matched term
+   * get the leading text instead. Failure is logged and leaves highlights empty.
+   * @param searcher searcher of the post index
+   * @param query the lucene query posts are found by
+   */
+  public void highlight(IndexSearcher searcher, Query query, List<PostHit> posts) {
+    posts.forEach(post -> post.setHighlights(Collections.emptyList()));
+    if (posts.isEmpty() || properties.getMaxFragments() <= 0) {
+      return;
+    }
+    try {
+      Set<BytesRef> terms = extractTerms(searcher, query);
+      for (PostHit post : posts) {
+        int docId = PostDocuments.docId(searcher, post.getId());
+        String cooked = docId < 0 ? null : searcher.doc(docId, STORED_FIELDS).get(COOKED_FIELD);
+        post.setHighlights(fragments(cooked == null ? post.getCooked() : cooked,
+            docId < 0 ? Collections.emptyList() : offsets(searcher, docId, terms)));
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.warn("highlight search hits failed", e);
+    }
+  }
+
+  private Set<BytesRef> extractTerms(IndexSearcher searcher, Query query) throws IOException {
+    Set<Term> terms = new HashSet<>();
+    searcher.createNormalizedWeight(query, false).extractTerms(terms);
+    return terms.stream()
+        .filter(term -> COOKED_FIELD.equals(term.field()))
+        .map(term -> BytesRef.deepCopyOf(term.bytes()))
+        .collect(Collectors.toSet());
+  }
+
+  /**
+   * Offsets of the matched terms in the indexed cooked, sorted and not overlapped.
+   */
+  private List<int[]> offsets(IndexSearcher searcher, int docId, Set<BytesRef> terms)
+      throws IOException {
+    List<int[]> offsets = new ArrayList<>();
+    if (terms.isEmpty()) {
+      return offsets;
+    }
+    Terms vector = searcher.getIndexReader().getTermVector(docId, COOKED_FIELD);
+    if (vector == null) {
+      return offsets;
+    }
+    TermsEnum termsEnum = vector.iterator();
+    PostingsEnum postings = null;
+    for (BytesRef term : terms) {
+      if (!termsEnum.seekExact(term)) {
+        continue;
+      }
+      postings = termsEnum.postings(postings, PostingsEnum.OFFSETS);
+      postings.nextDoc();
+      for (int i = postings.freq(); i > 0; i--) {
+        postings.nextPosition();
+        if (postings.startOffset() >= 0) {
+          offsets.add(new int[] {postings.startOffset(), postings.endOffset()});
+        }
+      }
+    }
+    offsets.sort(Comparator.comparingInt(offset -> offset[0]));
+
+    List<int[]> merged = new ArrayList<>(offsets.size());
+    for (int[] offset : offsets) {
+      int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+      if (last != null && offset[0] <= last[1]) {
+        last[1] = Math.max(last[1], offset[1]);
+      } else {
+        merged.add(offset);
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Pick the windows containing most matches, keep them in document order.
+   */
+  private List<String> fragments(String cooked, List<int[]> offsets) {
+    int size = properties.getFragmentSize();
+    List<String> fragments = new ArrayList<>();
+    if (cooked == null || cooked.isEmpty()) {
+      return fragments;
+    }
+    // the cooked may be edited after it is indexed
+    List<int[]> remaining = offsets.stream()
+        .filter(offset -> offset[1] <= cooked.length())
+        .collect(Collectors.toList());
+    if (remaining.isEmpty()) {
+      String leading = render(cooked, 0, size, remaining);
+      return leading.isEmpty() ? fragments : Collections.singletonList(leading);
+    }
+
+    List<int[]> windows = new ArrayList<>();
+    while (!remaining.isEmpty() && windows.size() < properties.getMaxFragments()) {
+      int[] best = null;
+      int bestCount = 0;
+      for (int[] offset : remaining) {
+        // never overlap the picked windows
+        int start = Math.max(0, offset[0] - size / 5);
+        int end = cooked.length();
+        for (int[] window : windows) {
+          if (window[1] <= offset[0]) {
+            start = Math.max(start, window[1]);
+          } else {
+            end = Math.min(end, window[0]);
+          }
+        }
+        end = Math.min(end, start + size);
+        int windowStart = start;
+        int windowEnd = end;
+        int count = (int) remaining.stream()
+            .filter(other -> other[0] >= windowStart && other[1] <= windowEnd)
+            .count();
+        if (count > bestCount) {
+          best = new int[] {windowStart, windowEnd};
+          bestCount = count;
+        }
+      }
+      if (best == null) {
+        break;
+      }
+      int[] window = best;
+      windows.add(window);
+      remaining.removeIf(offset -> offset[0] < window[1] && offset[1] > window[0]);
+    }
+    windows.sort(Comparator.comparingInt(window -> window[0]));
+
+    for (int[] window : windows) {
+      String fragment = render(cooked, window[0], window[1], offsets);
+      if (!fragment.isEmpty()) {
+        fragments.add(fragment);
+      }
+    }
+    return fragments;
+  }
+
+  /**
+   * Text of cooked[start, end) with tags stripped and offsets wrapped.
+   */
+  private String render(String cooked, int start, int end, List<int[]> offsets) {
+    end = Math.min(end, cooked.length());
+    boolean inTag = cooked.lastIndexOf('<', start - 1) > cooked.lastIndexOf('>', start - 1);
+    StringBuilder builder = new StringBuilder(end - start + 16);
+    int next = 0;
+    int closeAt = -1;
+    for (int i = start; i < end; i++) {
+      if (closeAt == i) {
+        builder.append(POST_TAG);
+        closeAt = -1;
+      }
+      char c = cooked.charAt(i);
+      if (inTag) {
+        inTag = c != '>';
+        continue;
+      }
+      if (c == '<') {
+        inTag = true;
+        appendSpace(builder);
+        continue;
+      }
+      while (closeAt < 0 && next < offsets.size() && offsets.get(next)[0] <= i) {
+        int[] offset = offsets.get(next++);
+        if (offset[0] == i && offset[1] <= end) {
+          builder.append(PRE_TAG);
+          closeAt = offset[1];
+        }
+      }
+      if (Character.isWhitespace(c)) {
+        appendSpace(builder);
+      } else {
+        builder.append(c);
+      }
+    }
+    // do not cut an entity, entities are short and never contain a tag
+    int amp = builder.lastIndexOf("&");
+    if (amp > builder.lastIndexOf(">") && amp >= builder.length() - 10
+        && builder.indexOf(";", amp) < 0) {
+      builder.setLength(amp);
+    }
+    if (closeAt >= 0) {
+      builder.append(POST_TAG);
+    }
+    return builder.toString().trim();
+  }
+
+  private void appendSpace(StringBuilder builder) {
+    if (builder.length() > 0 && builder.charAt(builder.length() - 1) != ' ') {
+      builder.append(' ');
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import org.bicarb.core.forum.search.SearchResult.PostHit;
+import org.bicarb.core.forum.search.SearchResult.TopicHit;
+import org.bicarb.core.forum.search.SearchResult.UserHit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Load the fields rendered by {@link SearchResponseWriter} for the given post ids
+ * with one projection query (and one for topic categories), no entity is managed.
+ * `raw` and `cooked` are only selected if content is requested, highlights are cut from
+ * the stored `cooked` of the index, see {@link SearchHighlighter}.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class SearchHydrator {
+
+  private static final String HIT_COLUMNS = " p.index as postIndex,"
+      + " p.lastEditAt as postLastEditAt, p.createAt as postCreateAt,"
+      + " p.delete as postDelete, pd.id as postDeleteById,"
+      + " t.id as topicId, t.title as topicTitle, t.author.id as topicAuthorId,"
+      + " t.postIndex as topicPostIndex, t.slug as topicSlug, t.locked as topicLocked,"
+      + " t.pinned as topicPinned, t.feature as topicFeature, t.createAt as topicCreateAt,"
+      + " t.delete as topicDelete, td.id as topicDeleteById,"
+      + " a.id as userId, a.username as userUsername, a.nickname as userNickname,"
+      + " a.avatar as userAvatar,"
+      + " a.bio as userBio, a.website as userWebsite, a.github as userGithub,"
+      + " a.topicCount as userTopicCount, a.postCount as userPostCount,"
+      + " a.active as userActive, a.lockedAt as userLockedAt,"
+      + " a.lockedUntil as userLockedUntil, a.lastSignInAt as userLastSignInAt,"
+      + " a.createAt as userCreateAt, a.group.id as userGroupId"
+      + " from Post p join p.topic t join p.author a"
+      + " left join p.deleteBy pd left join t.deleteBy td"
+      + " where p.id in :ids";
+  private static final String HIT_QUERY = "select p.id as postId," + HIT_COLUMNS;
+  private static final String HIT_CONTENT_QUERY = "select p.id as postId,"
+      + " p.raw as postRaw, p.cooked as postCooked," + HIT_COLUMNS;
+  private static final String CATEGORY_QUERY = "select t.id, c.id from Topic t"
+      + " join t.categories c where t.id in :ids order by c.id";
+
+  private final EntityManager entityManager;
+
+  @Autowired
+  public SearchHydrator(EntityManager entityManager) {
+    this.entityManager = entityManager;
+  }
+
+  /**
+   * Hydrate posts, keep the order of ids, missing posts are skipped.
+   * @param ids lucene result ids
+   * @param totalRecords lucene total hits
+   * @param content whether select `raw` and `cooked`
+   */
+  public SearchResult hydrate(List<Integer> ids, int totalRecords, boolean content) {
+    if (ids.isEmpty()) {
+      return SearchResult.builder()
+          .posts(Collections.emptyList())
+          .topics(Collections.emptyMap())
+          .users(Collections.emptyMap())
+          .totalRecords(totalRecords)
+          .build();
+    }
+
+    Map<Integer, PostHit> posts = new HashMap<>();
+    Map<Integer, TopicHit> topics = new LinkedHashMap<>();
+    Map<Integer, UserHit> users = new LinkedHashMap<>();
+    List<Tuple> tuples = entityManager
+        .createQuery(content ? HIT_CONTENT_QUERY : HIT_QUERY, Tuple.class)
+        .setParameter("ids", ids)
+        .getResultList();
+    for (Tuple tuple : tuples) {
+      PostHit post = toPost(tuple, content);
+      posts.put(post.getId(), post);
+      topics.computeIfAbsent(post.getTopicId(), id -> toTopic(tuple));
+      users.computeIfAbsent(post.getAuthorId(), id -> toUser(tuple));
+    }
+    fillCategories(topics);
+
+    List<PostHit> ordered = ids.stream()
+        .map(posts::get)
+        .filter(Objects::nonNull)
+        .collect(Collectors.toList());
+    return SearchResult.builder()
+        .posts(ordered)
+        .topics(topics)
+        .users(users)
+        .totalRecords(totalRecords)
+        .build();
+  }
+
+  private void fillCategories(Map<Integer, TopicHit> topics) {
+    Set<Integer> topicIds = topics.keySet();
+    topics.values().forEach(topic -> topic.setCategoryIds(new ArrayList<>()));
+    List<Object[]> rows = entityManager.createQuery(CATEGORY_QUERY, Object[].class)
+        .setParameter("ids", topicIds)
+        .getResultList();
+    rows.forEach(row -> topics.get((Integer) row[0]).getCategoryIds().add((Integer) row[1]));
+  }
+
+  private PostHit toPost(Tuple tuple, boolean content) {
+    return PostHit.builder()
+        .id(tuple.get("postId", Integer.class))
+        .raw(content ? tuple.get("postRaw", String.class) : null)
+        .cooked(content ? tuple.get("postCooked", String.class) : null)
+        .topicId(tuple.get("topicId", Integer.class))
+        .authorId(tuple.get("userId", Integer.class))
+        .index(tuple.get("postIndex", Integer.class))
+        .lastEditAt(tuple.get("postLastEditAt", Instant.class))
+        .createAt(tuple.get("postCreateAt", Instant.class))
+        .delete(tuple.get("postDelete", Boolean.class))
+        .deleteById(tuple.get("postDeleteById", Integer.class))
+        .build();
+  }
+
+  private TopicHit toTopic(Tuple tuple) {
+    return TopicHit.builder()
+        .id(tuple.get("topicId", Integer.class))
+        .title(tuple.get("topicTitle", String.class))
+        .authorId(tuple.get("topicAuthorId", Integer.class))
+        .postIndex(tuple.get("topicPostIndex", Integer.class))
+        .slug(tuple.get("topicSlug", String.class))
+        .locked(tuple.get("topicLocked", Boolean.class))
+        .pinned(tuple.get("topicPinned", Boolean.class))
+        .feature(tuple.get("topicFeature", Boolean.class))
+        .createAt(tuple.get("topicCreateAt", Instant.class))
+        .delete(tuple.get("topicDelete", Boolean.class))
+        .deleteById(tuple.get("topicDeleteById", Integer.class))
+        .build();
+  }
+
+  private UserHit toUser(Tuple tuple) {
+    return UserHit.builder()
+        .id(tuple.get("userId", Integer.class))
+        .username(tuple.get("userUsername", String.class))
+        .nickname(tuple.get("userNickname", String.class))
+        .avatar(tuple.get("userAvatar", String.class))
+        .bio(tuple.get("userBio", String.class))
+        .website(tuple.get("userWebsite", String.class))
+        .github(tuple.get("userGithub", String.class))
+        .topicCount(tuple.get("userTopicCount", Integer.class))
+        .postCount(tuple.get("userPostCount", Integer.class))
+        .active(tuple.get("userActive", Boolean.class))
+        .lockedAt(tuple.get("userLockedAt", Instant.class))
+        .lockedUntil(tuple.get("userLockedUntil", Instant.class))
+        .lastSignInAt(tuple.get("userLastSignInAt", Instant.class))
+        .createAt(tuple.get("userCreateAt", Instant.class))
+        .groupId(tuple.get("userGroupId", Integer.class))
+        .build();
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Generation of the post index, increased whenever a batch of post documents is flushed,
+ * and whenever posts may be hidden, e.g. deleted posts and topics, title or category changes.
+ * Static because {@link NonDeletePostInterceptor} is instantiated by hibernate search.
+ * Increases are broadcast to other nodes by {@link SearchIndexGenerationSync}.
+ *
+ * @see SearchResultCache
+ * @author olOwOlo
+ */
+public final class SearchIndexGeneration {
+
+  private static final AtomicLong GENERATION = new AtomicLong();
+  private static final Object SYNCHRONIZATION_KEY = new Object();
+
+  private static volatile Runnable broadcaster;
+
+  private SearchIndexGeneration() {
+  }
+
+  public static long current() {
+    return GENERATION.get();
+  }
+
+  /**
+   * Increase now, and once more after the current transaction is completed,
+   * since index changes are only applied on commit. Other nodes increase once it is completed.
+   */
+  public static void increase() {
+    GENERATION.incrementAndGet();
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      broadcast();
+    } else if (!TransactionSynchronizationManager.hasResource(SYNCHRONIZATION_KEY)) {
+      TransactionSynchronizationManager.bindResource(SYNCHRONIZATION_KEY, Boolean.TRUE);
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+              TransactionSynchronizationManager.unbindResourceIfPossible(SYNCHRONIZATION_KEY);
+              GENERATION.incrementAndGet();
+              broadcast();
+            }
+          });
+    }
+  }
+
+  /**
+   * Increase on behalf of another node, without broadcast.
+   */
+  static void increaseLocal() {
+    GENERATION.incrementAndGet();
+  }
+
+  static void setBroadcaster(Runnable runnable) {
+    broadcaster = runnable;
+  }
+
+  private static void broadcast() {
+    Runnable runnable = broadcaster;
+    if (runnable != null) {
+      runnable.run();
+    }
+  }
+}
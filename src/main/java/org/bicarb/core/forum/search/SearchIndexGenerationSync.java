@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import java.util.UUID;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.bicarb.core.system.bean.ListenNotify;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Share {@link SearchIndexGeneration} between nodes over LISTEN/NOTIFY, so hiding a post
+ * on one node invalidates cached results of all nodes. The payload is the node id,
+ * own notifications are ignored; after a reconnect the generation is increased,
+ * since notifications meanwhile are lost.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class SearchIndexGenerationSync {
+
+  private static final String CHANNEL = "bicarb_search_generation";
+
+  private final String node = UUID.randomUUID().toString();
+  private final ListenNotify listenNotify;
+
+  @Autowired
+  public SearchIndexGenerationSync(ListenNotify listenNotify) {
+    this.listenNotify = listenNotify;
+  }
+
+  @PostConstruct
+  void start() {
+    listenNotify.subscribe(CHANNEL, payload -> {
+      if (!node.equals(payload)) {
+        SearchIndexGeneration.increaseLocal();
+      }
+    });
+    SearchIndexGeneration.setBroadcaster(() -> listenNotify.notifyLater(CHANNEL, node));
+  }
+
+  @PreDestroy
+  void stop() {
+    SearchIndexGeneration.setBroadcaster(null);
+  }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.Principal;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManager;
+import org.bicarb.core.forum.check.PermissionCheck;
+import org.bicarb.core.forum.search.SearchResult.PostHit;
+import org.bicarb.core.forum.search.SearchResult.TopicHit;
+import org.bicarb.core.forum.search.SearchResult.UserHit;
+import org.bicarb.core.system.security.BicarbUserDetails;
+import org.bicarb.core.system.util.AuthenticationUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Stream a {@link SearchResult} as a JSON:API document, in the same shape as
+ * `GET /api/post?include=topic,author`.
+ * Read permissions of post, topic and user email are checked in memory here,
+ * keep them in sync with the expressions on the entities.
+ * User emails are not part of the cached result, they are loaded on every write.
+ *
+ * @see org.bicarb.core.forum.check.PostFilterCheck
+ * @see org.bicarb.core.forum.check.TopicFilterCheck
+ * @see org.bicarb.core.forum.check.UserPropertyCheck
+ * @author olOwOlo
+ */
+@Component
+public class SearchResponseWriter {
+
+  private static final String EMAIL_QUERY = "select u.id, u.email, u.emailPublic from User u"
+      + " where u.id in :ids";
+
+  private final JsonFactory jsonFactory;
+  private final EntityManager entityManager;
+
+  @Autowired
+  public SearchResponseWriter(ObjectMapper objectMapper, EntityManager entityManager) {
+    this.jsonFactory = objectMapper.getFactory();
+    this.entityManager = entityManager;
+  }
+
+  /**
+   * Write the posts visible to auth.
+   * `meta.page.totalRecords` is the lucene total hits, counted as `meta.page.totalRelation`,
+   * `meta.page.cursor` is the search-after cursor of the next page,
+   * `meta.facets.categories` is matches per category id if counted.
+   * @param auth nullable
+   * @param content whether write `raw` and `cooked` of posts, `highlights` is always written
+   */
+  public void write(SearchResult result, Principal auth, boolean content, OutputStream out)
+      throws IOException {
+    Viewer viewer = new Viewer(AuthenticationUtils.getUserDetails(auth));
+    List<PostHit> posts = result.getPosts().stream()
+        .filter(post -> viewer.canRead(post, result.getTopics().get(post.getTopicId())))
+        .collect(Collectors.toList());
+    Set<Integer> topicIds = posts.stream()
+        .map(PostHit::getTopicId)
+        .filter(id -> viewer.canRead(result.getTopics().get(id)))
+        .collect(Collectors.toCollection(LinkedHashSet::new));
+    Set<Integer> userIds = posts.stream()
+        .map(PostHit::getAuthorId)
+        .collect(Collectors.toCollection(LinkedHashSet::new));
+    Map<Integer, Email> emails = loadEmails(userIds);
+
+    try (JsonGenerator gen = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+      gen.writeStartObject();
+      gen.writeArrayFieldStart("data");
+      for (PostHit post : posts) {
+        writePost(gen, post, content);
+      }
+      gen.writeEndArray();
+      if (!posts.isEmpty()) {
+        gen.writeArrayFieldStart("included");
+        for (Integer topicId : topicIds) {
+          writeTopic(gen, result.getTopics().get(topicId));
+        }
+        for (Integer userId : userIds) {
+          writeUser(gen, result.getUsers().get(userId), emails.get(userId), viewer);
+        }
+        gen.writeEndArray();
+      }
+      gen.writeObjectFieldStart("meta");
+      gen.writeObjectFieldStart("page");
+      gen.writeNumberField("totalRecords", result.getTotalRecords());
+      gen.writeStringField("totalRelation", result.getTotalRelation() == null
+          ? null : result.getTotalRelation().name().toLowerCase(Locale.ROOT));
+      gen.writeStringField("cursor", result.getCursor());
+      gen.writeEndObject();
+      if (result.getCategoryFacets() != null) {
+        gen.writeObjectFieldStart("facets");
+        gen.writeObjectFieldStart("categories");
+        for (Map.Entry<Integer, Integer> facet : result.getCategoryFacets().entrySet()) {
+          gen.writeNumberField(facet.getKey().toString(), facet.getValue());
+        }
+        gen.writeEndObject();
+        gen.writeEndObject();
+      }
+      gen.writeEndObject();
+      gen.writeEndObject();
+    }
+  }
+
+  private void writePost(JsonGenerator gen, PostHit post, boolean content) throws IOException {
+    writeResourceStart(gen, "post", post.getId());
+    if (content) {
+      gen.writeStringField("raw", post.getRaw());
+      gen.writeStringField("cooked", post.getCooked());
+    }
+    gen.writeArrayFieldStart("highlights");
+    for (String highlight : post.getHighlights()) {
+      gen.writeString(highlight);
+    }
+    gen.writeEndArray();
+    gen.writeNumberField("index", post.getIndex());
+    writeInstantField(gen, "lastEditAt", post.getLastEditAt());
+    writeInstantField(gen, "createAt", post.getCreateAt());
+    gen.writeEndObject();
+    gen.writeObjectFieldStart("relationships");
+    writeToOne(gen, "topic", "topic", post.getTopicId());
+    writeToOne(gen, "author", "user", post.getAuthorId());
+    gen.writeEndObject();
+    gen.writeEndObject();
+  }
+
+  private void writeTopic(JsonGenerator gen, TopicHit topic) throws IOException {
+    writeResourceStart(gen, "topic", topic.getId());
+    gen.writeStringField("title", topic.getTitle());
+    gen.writeNumberField("postIndex", topic.getPostIndex());
+    gen.writeStringField("slug", topic.getSlug());
+    gen.writeBooleanField("locked", topic.getLocked());
+    gen.writeBooleanField("pinned", topic.getPinned());
+    gen.writeBooleanField("feature", topic.getFeature());
+    writeInstantField(gen, "createAt", topic.getCreateAt());
+    gen.writeEndObject();
+    gen.writeObjectFieldStart("relationships");
+    writeToOne(gen, "author", "user", topic.getAuthorId());
+    gen.writeObjectFieldStart("categories");
+    gen.writeArrayFieldStart("data");
+    for (Integer categoryId : topic.getCategoryIds()) {
+      writeIdentifier(gen, "category", categoryId);
+    }
+    gen.writeEndArray();
+    gen.writeEndObject();
+    gen.writeEndObject();
+    gen.writeEndObject();
+  }
+
+  /**
+   * Current emails of the users, deleted users are missing.
+   */
+  private Map<Integer, Email> loadEmails(Set<Integer> userIds) {
+    Map<Integer, Email> emails = new HashMap<>();
+    if (userIds.isEmpty()) {
+      return emails;
+    }
+    entityManager.createQuery(EMAIL_QUERY, Object[].class)
+        .setParameter("ids", userIds)
+        .getResultList()
+        .forEach(row -> emails.put((Integer) row[0],
+            new Email((String) row[1], (Boolean) row[2])));
+    return emails;
+  }
+
+  private void writeUser(JsonGenerator gen, UserHit user, Email email, Viewer viewer)
+      throws IOException {
+    writeResourceStart(gen, "user", user.getId());
+    gen.writeStringField("username", user.getUsername());
+    gen.writeStringField("nickname", user.getNickname());
+    if (email != null) {
+      if (viewer.canReadEmail(user.getId(), email)) {
+        gen.writeStringField("email", email.address);
+      }
+      gen.writeBooleanField("emailPublic", email.emailPublic);
+    }
+    gen.writeStringField("avatar", user.getAvatar());
+    gen.writeStringField("bio", user.getBio());
+    gen.writeStringField("website", user.getWebsite());
+    gen.writeStringField("github", user.getGithub());
+    gen.writeNumberField("topicCount", user.getTopicCount());
+    gen.writeNumberField("postCount", user.getPostCount());
+    gen.writeBooleanField("active", user.getActive());
+    writeInstantField(gen, "lockedAt", user.getLockedAt());
+    writeInstantField(gen, "lockedUntil", user.getLockedUntil());
+    writeInstantField(gen, "lastSignInAt", user.getLastSignInAt());
+    writeInstantField(gen, "createAt", user.getCreateAt());
+    gen.writeEndObject();
+    gen.writeObjectFieldStart("relationships");
+    writeToOne(gen, "group", "group", user.getGroupId());
+    gen.writeEndObject();
+    gen.writeEndObject();
+  }
+
+  /**
+   * Write `{"type":..,"id":..,"attributes":{`.
+   */
+  private void writeResourceStart(JsonGenerator gen, String type, Integer id) throws IOException {
+    gen.writeStartObject();
+    gen.writeStringField("type", type);
+    gen.writeStringField("id", id.toString());
+    gen.writeObjectFieldStart("attributes");
+  }
+
+  private void writeToOne(JsonGenerator gen, String field, String type, Integer id)
+      throws IOException {
+    gen.writeObjectFieldStart(field);
+    gen.writeFieldName("data");
+    if (id == null) {
+      gen.writeNull();
+    } else {
+      writeIdentifier(gen, type, id);
+    }
+    gen.writeEndObject();
+  }
+
+  private void writeIdentifier(JsonGenerator gen, String type, Integer id) throws IOException {
+    gen.writeStartObject();
+    gen.writeStringField("type", type);
+    gen.writeStringField("id", id.toString());
+    gen.writeEndObject();
+  }
+
+  private void writeInstantField(JsonGenerator gen, String field, Instant instant)
+      throws IOException {
+    if (instant == null) {
+      gen.writeNullField(field);
+    } else {
+      gen.writeStringField(field, instant.toString());
+    }
+  }
+
+  private static class Email {
+
+    private final String address;
+    private final boolean emailPublic;
+
+    private Email(String address, Boolean emailPublic) {
+      this.address = address;
+      this.emailPublic = emailPublic;
+    }
+  }
+
+  private static class Viewer {
+
+    private final Integer uid;
+    private final BicarbUserDetails details;
+
+    private Viewer(Optional<BicarbUserDetails> details) {
+      this.details = details.orElse(null);
+      this.uid = details.map(BicarbUserDetails::getId).orElse(null);
+    }
+
+    /**
+     * Same as the read permission of {@link org.bicarb.core.forum.domain.Post}.
+     */
+    private boolean canRead(PostHit post, TopicHit topic) {
+      return hasPermission(PermissionCheck.POST_DELETE)
+          || !topic.getDelete()
+          && (!post.getDelete()
+          || hasUserPermission(PermissionCheck.POST_DELETE_OWN)
+          && uid.equals(post.getDeleteById()));
+    }
+
+    /**
+     * Same as the read permission of {@link org.bicarb.core.forum.domain.Topic}.
+     */
+    private boolean canRead(TopicHit topic) {
+      return hasPermission(PermissionCheck.TOPIC_DELETE)
+          || !topic.getDelete()
+          || hasUserPermission(PermissionCheck.TOPIC_DELETE_OWN)
+          && uid.equals(topic.getDeleteById());
+    }
+
+    private boolean canReadEmail(Integer userId, Email email) {
+      return email.emailPublic || userId.equals(uid);
+    }
+
+    private boolean hasPermission(String permission) {
+      return details != null && details.hasPermission(permission);
+    }
+
+    /**
+     * Same as {@link PermissionCheck.UserPermissionCheck}, also require user is valid.
+     */
+    private boolean hasUserPermission(String permission) {
+      return hasPermission(permission)
+          && details.getActive()
+          && (details.getLockedUntil() == null || details.getLockedUntil().isBefore(Instant.now()));
+    }
+  }
+}
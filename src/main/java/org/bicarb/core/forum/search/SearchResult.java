@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Hydrated search result, posts in lucene score order with their topics and authors.
+ * Nothing is filtered here, visibility is applied by {@link SearchResponseWriter}.
+ *
+ * @author olOwOlo
+ */
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class SearchResult {
+
+  private List<PostHit> posts;
+  private Map<Integer, TopicHit> topics;
+  private Map<Integer, UserHit> users;
+  private Integer totalRecords;
+  private TotalRelation totalRelation;
+  /**
+   * Search-after cursor of the next page, null if this is the last page.
+   */
+  private String cursor;
+  /**
+   * Matches per category id in descending order, null if not counted.
+   */
+  private Map<Integer, Integer> categoryFacets;
+
+  /**
+   * How {@link #totalRecords} relates to the real total, see
+   * {@link org.bicarb.core.system.config.SearchProperties.Count.Mode}.
+   */
+  public enum TotalRelation {
+    EQ, GTE, APPROX
+  }
+
+  @Builder
+  @AllArgsConstructor
+  @NoArgsConstructor
+  @Data
+  public static class PostHit {
+    private Integer id;
+    private String raw;
+    private String cooked;
+    private Integer topicId;
+    private Integer authorId;
+    private Integer index;
+    private Instant lastEditAt;
+    private Instant createAt;
+    private Boolean delete;
+    private Integer deleteById;
+    /**
+     * Highlighted fragments of cooked, see {@link SearchHighlighter}.
+     */
+    private List<String> highlights;
+  }
+
+  @Builder
+  @AllArgsConstructor
+  @NoArgsConstructor
+  @Data
+  public static class TopicHit {
+    private Integer id;
+    private String title;
+    private Integer authorId;
+    private Integer postIndex;
+    private List<Integer> categoryIds;
+    private String slug;
+    private Boolean locked;
+    private Boolean pinned;
+    private Boolean feature;
+    private Instant createAt;
+    private Boolean delete;
+    private Integer deleteById;
+  }
+
+  @Builder
+  @AllArgsConstructor
+  @NoArgsConstructor
+  @Data
+  public static class UserHit {
+    private Integer id;
+    private String username;
+    private String nickname;
+    private String avatar;
+    private String bio;
+    private String website;
+    private String github;
+    private Integer topicCount;
+    private Integer postCount;
+    private Boolean active;
+    private Instant lockedAt;
+    private Instant lockedUntil;
+    private Instant lastSignInAt;
+    private Instant createAt;
+    private Integer groupId;
+  }
+}
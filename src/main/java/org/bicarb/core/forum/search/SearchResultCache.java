@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.search;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded cache of hydrated search results, see cache `searchResult` in ehcache3.xml.
+ * Keys contain the {@link SearchIndexGeneration}, so any change of the post index,
+ * on any node, invalidates all entries at once and stale entries are simply evicted.
+ * Results are cached before visibility is applied, so one entry serves every viewer,
+ * user emails are not cached but loaded by {@link SearchResponseWriter}.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class SearchResultCache {
+
+  public static final String CACHE_NAME = "searchResult";
+
+  private final Cache cache;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  @Autowired
+  public SearchResultCache(CacheManager cacheManager) {
+    this.cache = cacheManager.getCache(CACHE_NAME);
+  }
+
+  /**
+   * Get cached result or load and cache it.
+   * @param type search type, e.g. `search`, `relate`
+   * @param query query string or post id, normalized before used as key
+   * @param filter nullable, compared by equals
+   * @param after nullable search-after cursor
+   * @param content whether `raw` and `cooked` of posts are loaded
+   * @param loader load result if missing
+   */
+  public SearchResult get(String type, String query, SearchFilter filter, String after,
+      Pageable pageable, boolean content, Supplier<SearchResult> loader) {
+    Key key = new Key(SearchIndexGeneration.current(), type, normalize(query), filter, after,
+        pageable.getPageNumber(), pageable.getPageSize(), content);
+    SearchResult result = cache.get(key, SearchResult.class);
+    if (result != null) {
+      hits.incrementAndGet();
+      return result;
+    }
+
+    misses.incrementAndGet();
+    result = loader.get();
+    // skip if the index changed during loading, the result may be stale.
+    if (key.generation == SearchIndexGeneration.current()) {
+      cache.put(key, result);
+    }
+    return result;
+  }
+
+  /**
+   * Hit / miss counts since startup.
+   */
+  public SearchCacheStats getStats() {
+    long hitCount = hits.get();
+    long missCount = misses.get();
+    long total = hitCount + missCount;
+    return SearchCacheStats.builder()
+        .hits(hitCount)
+        .misses(missCount)
+        .hitRate(total == 0 ? 0d : (double) hitCount / total)
+        .generation(SearchIndexGeneration.current())
+        .build();
+  }
+
+  /**
+   * Trim, collapse whitespace and lower case (the analyzer lower cases anyway).
+   */
+  static String normalize(String query) {
+    return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+  }
+
+  @AllArgsConstructor
+  @Data
+  private static class Key {
+    private final long generation;
+    private final String type;
+    private final String query;
+    private final SearchFilter filter;
+    private final String after;
+    private final int page;
+    private final int size;
+    private final boolean content;
+  }
+}
@@ -16,8 +16,9 @@
 
 package org.bicarb.core.forum.search;
 
-import com.yahoo.elide.ElideResponse;
-import java.security.Principal;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import org.springframework.data.domain.Pageable;
 
@@ -38,13 +39,39 @@ public interface SearchService {
    *   <li>fuzzy (fuzy~2)</li>
    *   <li>near operator for phrase queries ("war peace"~3).</li>
    * </ol>
+   * Category facets are counted, see {@link SearchResult#getCategoryFacets()}.
+   * @param filter category, author and create time filters, must not be null
+   * @param after nullable search-after cursor, {@link SearchResult#getCursor()} of the
+   *     previous page, the page number is ignored if present
+   * @param content false to leave `raw` and `cooked` of posts unloaded
    */
-  ElideResponse search(String query, Pageable pageable, Principal auth);
+  SearchResult search(String query, SearchFilter filter, Pageable pageable, String after,
+      boolean content);
 
   /**
    * searchMoreLikeThis.
+   * @param after nullable search-after cursor, see
+   *     {@link #search(String, SearchFilter, Pageable, String, boolean)}
+   * @param content false to leave `raw` and `cooked` of posts unloaded
    */
-  ElideResponse searchMoreLikeThis(Integer postId, Pageable pageable, Principal auth);
+  SearchResult searchMoreLikeThis(Integer postId, Pageable pageable, String after,
+      boolean content);
+
+  /**
+   * Typeahead suggestion, titles of non-deleted topics matching every term prefix.
+   * @param size capped at 20
+   */
+  List<TopicSuggestion> suggest(String prefix, int size);
+
+  /**
+   * Ids and titles of topics related to the topic, precomputed in the background.
+   */
+  List<TopicSuggestion> searchRelatedTopics(Integer topicId);
+
+  /**
+   * Hit / miss statistics of the search result cache.
+   */
+  SearchCacheStats getCacheStats();
 
   /**
    * Create or update all. Async.
@@ -58,8 +85,35 @@ public interface SearchService {
    */
   CompletableFuture<Boolean> reBuildIndex();
 
+  /**
+   * Create or update posts created or edited since the given instant. Async.
+   * @return true if success, otherwise return false
+   */
+  CompletableFuture<Boolean> incrementalReBuildIndex(Instant since);
+
+  /**
+   * Resume an interrupted rebuild from its checkpoints. Async.
+   * @return true if success or nothing to resume, otherwise return false
+   */
+  CompletableFuture<Boolean> resumeReBuildIndex();
+
   /**
    * Whether rebuild is processing.
    */
   Boolean isIndexing();
+
+  /**
+   * Progress of the running or last finished rebuild, empty if never rebuilt.
+   */
+  Optional<IndexingProgress> getIndexingProgress();
+
+  /**
+   * Depth, lag and counters of the async index queue.
+   */
+  IndexQueueStatus getIndexQueueStatus();
+
+  /**
+   * Readiness and timing of the analyzer warm-up.
+   */
+  AnalyzerWarmupStatus getAnalyzerWarmupStatus();
 }
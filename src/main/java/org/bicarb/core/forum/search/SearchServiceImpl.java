@@ -16,29 +16,21 @@
 
 package org.bicarb.core.forum.search;
 
-import com.google.common.collect.ImmutableMap;
-import com.yahoo.elide.Elide;
-import com.yahoo.elide.ElideResponse;
-import java.security.Principal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.StringJoiner;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 import javax.persistence.EntityManager;
-import javax.ws.rs.core.MultivaluedHashMap;
-import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.search.Query;
 import org.bicarb.core.forum.domain.Post;
-import org.hibernate.CacheMode;
-import org.hibernate.FlushMode;
-import org.hibernate.ScrollMode;
-import org.hibernate.ScrollableResults;
-import org.hibernate.Session;
-import org.hibernate.search.FullTextSession;
+import org.bicarb.core.forum.domain.Topic;
 import org.hibernate.search.engine.ProjectionConstants;
 import org.hibernate.search.jpa.FullTextEntityManager;
 import org.hibernate.search.jpa.Search;
@@ -47,10 +39,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Pageable;
-import org.springframework.http.HttpStatus;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 /**
@@ -64,152 +56,178 @@ public class SearchServiceImpl implements SearchService {
 
   private static final Logger logger = LoggerFactory.getLogger(SearchServiceImpl.class);
 
-  private static final int BATCH_SIZE = 20;
+  /**
+   * Upper bound of suggestion size.
+   */
+  private static final int MAX_SUGGEST_SIZE = 20;
 
   private final AtomicBoolean indexing = new AtomicBoolean(false);
 
   private final EntityManager entityManager;
-  private final Elide elide;
+  private final PostSearcher postSearcher;
+  private final SearchResultCache searchResultCache;
+  private final PostIndexer postIndexer;
+  private final PostIndexQueue postIndexQueue;
+  private final RelatedTopicCache relatedTopicCache;
+  private final AnalyzerWarmer analyzerWarmer;
 
+  /** Constructor. */
   @Autowired
-  public SearchServiceImpl(EntityManager entityManager, Elide elide) {
+  public SearchServiceImpl(
+      EntityManager entityManager,
+      PostSearcher postSearcher,
+      SearchResultCache searchResultCache,
+      PostIndexer postIndexer,
+      PostIndexQueue postIndexQueue,
+      RelatedTopicCache relatedTopicCache,
+      AnalyzerWarmer analyzerWarmer) {
     this.entityManager = entityManager;
-    this.elide = elide;
+    this.postSearcher = postSearcher;
+    this.searchResultCache = searchResultCache;
+    this.postIndexer = postIndexer;
+    this.postIndexQueue = postIndexQueue;
+    this.relatedTopicCache = relatedTopicCache;
+    this.analyzerWarmer = analyzerWarmer;
+  }
+
+  @Override
+  public SearchResult search(
+      String query, SearchFilter filter, Pageable pageable, String after, boolean content) {
+    SearchCursor cursor = after == null ? null : SearchCursor.parse(after);
+    return searchResultCache.get("search", query, filter, after, pageable, content,
+        () -> doSearch(query, filter, pageable, cursor, content));
+  }
+
+  @Override
+  public SearchResult searchMoreLikeThis(Integer postId, Pageable pageable, String after,
+      boolean content) {
+    SearchCursor cursor = after == null ? null : SearchCursor.parse(after);
+    return searchResultCache.get("relate", postId.toString(), null, after, pageable, content,
+        () -> doSearchMoreLikeThis(postId, pageable, cursor, content));
+  }
+
+  /**
+   * Query the topic index only, ids and titles are projected from stored fields,
+   * so neither database nor transaction is touched and the hit count is not computed.
+   */
+  @Transactional(propagation = Propagation.SUPPORTS)
+  @Override
+  public List<TopicSuggestion> suggest(String prefix, int size) {
+    if (StringUtils.isBlank(prefix) || size <= 0) {
+      return Collections.emptyList();
+    }
+    analyzerWarmer.awaitReady();
+    FullTextEntityManager fullTextEntityManager = Search.getFullTextEntityManager(entityManager);
+
+    QueryBuilder queryBuilder = fullTextEntityManager
+        .getSearchFactory()
+        .buildQueryBuilder()
+        .forEntity(Topic.class)
+        .overridesForField(BicarbSearchMappingFactory.TITLE_SUGGEST, "suggestQuery")
+        .get();
+
+    Query query = queryBuilder
+        .simpleQueryString()
+        .onField(BicarbSearchMappingFactory.TITLE_SUGGEST)
+        .withAndAsDefaultOperator()
+        .matching(prefix)
+        .createQuery();
+
+    List result = fullTextEntityManager
+        .createFullTextQuery(query, Topic.class)
+        .setTimeout(1L, TimeUnit.SECONDS)
+        .setMaxResults(Math.min(size, MAX_SUGGEST_SIZE))
+        .setProjection(ProjectionConstants.ID, BicarbSearchMappingFactory.TITLE_SUGGEST)
+        .getResultList();
+
+    List<TopicSuggestion> suggestions = new ArrayList<>(result.size());
+    for (Object item : result) {
+      Object[] row = (Object[]) item;
+      suggestions.add(new TopicSuggestion((Integer) row[0], (String) row[1]));
+    }
+    logger.debug("suggest: [prefix: {}, size: {}], get {}", prefix, size, suggestions.size());
+    return suggestions;
+  }
+
+  @Override
+  public List<TopicSuggestion> searchRelatedTopics(Integer topicId) {
+    analyzerWarmer.awaitReady();
+    return relatedTopicCache.get(topicId);
   }
 
+  @PreAuthorize("hasAuthority('admin')")
   @Override
-  public ElideResponse search(String query, Pageable pageable, Principal auth) {
-    logger.debug("search: [query: {}, pageable: {}]", query, pageable);
+  public SearchCacheStats getCacheStats() {
+    return searchResultCache.getStats();
+  }
 
-    Pair<List<Integer>, Integer> idAndSize = searchIdByLuceneQuery(builder -> builder
+  private SearchResult doSearch(
+      String query, SearchFilter filter, Pageable pageable, SearchCursor after,
+      boolean content) {
+    analyzerWarmer.awaitReady();
+    logger.debug("search: [query: {}, filter: {}, pageable: {}, after: {}]",
+        query, filter, pageable, after);
+
+    return searchByLuceneQuery(builder -> builder
         .simpleQueryString()
         .onField("topic.title").boostedTo(2f)
         .andField("cooked")
         .matching(query)
-        .createQuery(), pageable);
-
-    return getElideResponseBySearchResult(idAndSize, auth);
+        .createQuery(), filter, pageable, after, content);
   }
 
-  @Override
-  public ElideResponse searchMoreLikeThis(Integer postId, Pageable pageable, Principal auth) {
-    logger.debug("searchMoreLikeThis: [postId: {}, pageable: {}]", postId, pageable);
-    Pair<List<Integer>, Integer> idAndSize = searchIdByLuceneQuery(builder -> builder
+  private SearchResult doSearchMoreLikeThis(
+      Integer postId, Pageable pageable, SearchCursor after, boolean content) {
+    analyzerWarmer.awaitReady();
+    logger.debug("searchMoreLikeThis: [postId: {}, pageable: {}, after: {}]",
+        postId, pageable, after);
+    return searchByLuceneQuery(builder -> builder
         .moreLikeThis()
         .excludeEntityUsedForComparison()
         .comparingField("topic.title").boostedTo(2f)
         .andField("cooked")
         .toEntityWithId(postId)
-        .createQuery(), pageable);
-
-    return getElideResponseBySearchResult(idAndSize, auth);
+        .createQuery(), null, pageable, after, content);
   }
 
-  private Pair<List<Integer>, Integer> searchIdByLuceneQuery(
-      Function<QueryBuilder, Query> function, Pageable pageable) {
-    FullTextEntityManager fullTextEntityManager = Search.getFullTextEntityManager(entityManager);
-
-    QueryBuilder queryBuilder = fullTextEntityManager
+  private SearchResult searchByLuceneQuery(
+      Function<QueryBuilder, Query> function, SearchFilter filter, Pageable pageable,
+      SearchCursor after, boolean content) {
+    QueryBuilder queryBuilder = Search.getFullTextEntityManager(entityManager)
         .getSearchFactory()
         .buildQueryBuilder()
         .forEntity(Post.class)
         .get();
 
-    org.hibernate.search.jpa.FullTextQuery hibernateQuery = fullTextEntityManager
-        .createFullTextQuery(function.apply(queryBuilder), Post.class)
-        .setTimeout(5L, TimeUnit.SECONDS)
-        .setFirstResult((int) pageable.getOffset())
-        .setMaxResults(pageable.getPageSize())
-        .setProjection(ProjectionConstants.ID);
-
-    List result = hibernateQuery.getResultList();
-    int size = hibernateQuery.getResultSize();
-
-    Pair<List<Integer>, Integer> resultIdList = Pair.of(toIntegerList(result), size);
-    logger.debug("get {} lucene results: {}", size, resultIdList);
-
-    return resultIdList;
+    return postSearcher.search(function.apply(queryBuilder), filter, pageable, after, content);
   }
 
-  private ElideResponse getElideResponseBySearchResult(
-      Pair<List<Integer>, Integer> idAndSize, Principal auth) {
-    List<Integer> ids = idAndSize.getLeft();
-    if (ids.size() == 0) {
-      return new ElideResponse(HttpStatus.OK.value(),
-          "{\"data\":[],\"meta\":{\"page\":{\"totalRecords\":0}}}");
-    }
-
-    StringJoiner sj = new StringJoiner(",", "(", ")");
-    ids.forEach(id -> sj.add(id.toString()));
-    String inClause = sj.toString();
-
-    Map<String, String> queryParams = ImmutableMap.<String, String>builder()
-        .put("filter[post]", "id=in=" + inClause)
-        .put("include", "topic,author")
-        .put("fields[post]", "raw,cooked,topic,author,index,lastEditAt,createAt")
-        .put("fields[topic]",
-            "title,author,postIndex,categories,slug,locked,pinned,feature,createAt")
-        .put("fields[user]", "username,nickname,email,emailPublic,avatar,bio,website,github,"
-            + "topicCount,postCount,active,lockedAt,lockedUntil,lastSignInAt,createAt,group")
-        .build();
-
-    ElideResponse elideResponse = elide.get("/post", new MultivaluedHashMap<>(queryParams), auth);
-    if (elideResponse.getResponseCode() == HttpStatus.OK.value()) {
-      String body = elideResponse.getBody();
-      String pageMeta = ",\"meta\":{\"page\":{\"totalRecords\":" + idAndSize.getRight() + "}}";
-
-      return new ElideResponse(HttpStatus.OK.value(),
-          new StringBuilder(body).insert(body.length() - 1, pageMeta).toString());
-    } else {
-      return elideResponse;
-    }
+  @Async
+  @Override
+  public CompletableFuture<Boolean> safeReBuildIndex() {
+    return CompletableFuture.completedFuture(
+        onlyOneReBuildSchedule(() -> postIndexer.indexAll(false)));
   }
 
-  @SuppressWarnings("unchecked")
-  private List<Integer> toIntegerList(List list) {
-    return (List<Integer>) list.stream()
-        .map(item -> ((Object[]) item)[0])
-        .collect(Collectors.toList());
+  @Async
+  @Override
+  public CompletableFuture<Boolean> reBuildIndex() {
+    return CompletableFuture.completedFuture(
+        onlyOneReBuildSchedule(() -> postIndexer.indexAll(true)));
   }
 
   @Async
   @Override
-  public CompletableFuture<Boolean> safeReBuildIndex() {
-    Boolean success = onlyOneReBuildSchedule(() -> {
-      FullTextSession fullTextSession =
-          org.hibernate.search.Search.getFullTextSession(entityManager.unwrap(Session.class));
-
-      fullTextSession.setHibernateFlushMode(FlushMode.MANUAL);
-      fullTextSession.setCacheMode(CacheMode.IGNORE);
-
-      // TODO jpa 2.2 ?
-      ScrollableResults results = fullTextSession.createCriteria(Post.class)
-          .setFetchSize(BATCH_SIZE)
-          .scroll(ScrollMode.FORWARD_ONLY);
-      int index = 0;
-      while (results.next()) {
-        index++;
-        fullTextSession.index(results.get(0)); //index each element
-        if (index % BATCH_SIZE == 0) {
-          fullTextSession.flushToIndexes(); //apply changes to indexes
-          fullTextSession.clear(); //free memory since the queue is processed
-        }
-      }
-    });
-    return CompletableFuture.completedFuture(success);
+  public CompletableFuture<Boolean> incrementalReBuildIndex(Instant since) {
+    return CompletableFuture.completedFuture(
+        onlyOneReBuildSchedule(() -> postIndexer.indexSince(since)));
   }
 
   @Async
   @Override
-  public CompletableFuture<Boolean> reBuildIndex() {
-    Boolean success = onlyOneReBuildSchedule(() -> {
-      try {
-        Search.getFullTextEntityManager(entityManager).createIndexer(Post.class).startAndWait();
-      } catch (InterruptedException e) {
-        logger.error("rebuild index throw InterruptedException", e);
-      }
-    });
-    return CompletableFuture.completedFuture(success);
+  public CompletableFuture<Boolean> resumeReBuildIndex() {
+    return CompletableFuture.completedFuture(
+        onlyOneReBuildSchedule(postIndexer::resume));
   }
 
   @PreAuthorize("hasAuthority('admin')")
@@ -218,19 +236,40 @@ public class SearchServiceImpl implements SearchService {
     return indexing.get();
   }
 
+  @PreAuthorize("hasAuthority('admin')")
+  @Override
+  public Optional<IndexingProgress> getIndexingProgress() {
+    return postIndexer.getProgress();
+  }
+
+  @PreAuthorize("hasAuthority('admin')")
+  @Override
+  public IndexQueueStatus getIndexQueueStatus() {
+    return postIndexQueue.getStatus();
+  }
+
+  @Override
+  public AnalyzerWarmupStatus getAnalyzerWarmupStatus() {
+    return analyzerWarmer.getStatus();
+  }
+
   /**
    * onlyOneReBuildSchedule.
    * @param schedule not create a thread
+   * @return false if another rebuild is processing or schedule failed
    */
-  private Boolean onlyOneReBuildSchedule(Runnable schedule) {
+  private Boolean onlyOneReBuildSchedule(BooleanSupplier schedule) {
     if (!indexing.compareAndSet(false, true)) {
       logger.warn("Index is rebuilding, ignore this request.");
       return false;
     }
-    logger.info("Starting rebuild index.");
-    schedule.run();
-    logger.info("Rebuild index finished.");
-    indexing.set(false);
-    return true;
+    try {
+      logger.info("Starting rebuild index.");
+      boolean success = schedule.getAsBoolean();
+      logger.info("Rebuild index finished, success: {}.", success);
+      return success;
+    } finally {
+      indexing.set(false);
+    }
   }
 }
@@ -21,43 +21,36 @@ import com.yahoo.elide.functions.LifeCycleHook;
 import com.yahoo.elide.security.ChangeSpec;
 import com.yahoo.elide.security.RequestScope;
 import java.util.Optional;
-import javax.persistence.EntityManager;
-import org.bicarb.core.forum.domain.Post;
 import org.bicarb.core.forum.domain.Topic;
-import org.bicarb.core.forum.repository.PostRepository;
-import org.hibernate.search.jpa.FullTextEntityManager;
-import org.hibernate.search.jpa.Search;
 import org.illyasviel.elide.spring.boot.annotation.ElideHook;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * Manual create or delete relative posts.
+ * Posts of deleted topic are purged by topic id, posts of restored topic are reindexed,
+ * both after commit, see {@link PostIndexer#indexTopic(Integer)}.
  *
  * @author olOwOlo
  */
 @ElideHook(lifeCycle = OnUpdatePreCommit.class, fieldOrMethodName = "delete")
 public class TopicDeleteUpdatePreCommit implements LifeCycleHook<Topic> {
 
-  private final EntityManager entityManager;
-  private final PostRepository postRepository;
+  private final PostIndexQueue postIndexQueue;
+  private final RelatedTopicCache relatedTopicCache;
 
+  /** Constructor. */
   @Autowired
-  public TopicDeleteUpdatePreCommit(EntityManager entityManager, PostRepository postRepository) {
-    this.entityManager = entityManager;
-    this.postRepository = postRepository;
+  public TopicDeleteUpdatePreCommit(
+      PostIndexQueue postIndexQueue,
+      RelatedTopicCache relatedTopicCache) {
+    this.postIndexQueue = postIndexQueue;
+    this.relatedTopicCache = relatedTopicCache;
   }
 
   @Override
   public void execute(Topic topic, RequestScope requestScope, Optional<ChangeSpec> changes) {
-    FullTextEntityManager fullTextEntityManager = Search.getFullTextEntityManager(entityManager);
-    if (topic.getDelete()) {
-      // delete
-      postRepository.findByTopic(topic)
-          .forEach(post -> fullTextEntityManager.purge(Post.class, post.getId()));
-    } else {
-      // restore
-      postRepository.findByTopic(topic)
-          .forEach(fullTextEntityManager::index);
-    }
+    SearchIndexGeneration.increase();
+    postIndexQueue.enqueueTopicAfterCommit(topic.getId());
+    relatedTopicCache.clear();
   }
 }
@@ -21,34 +21,35 @@ import com.yahoo.elide.functions.LifeCycleHook;
 import com.yahoo.elide.security.ChangeSpec;
 import com.yahoo.elide.security.RequestScope;
 import java.util.Optional;
-import javax.persistence.EntityManager;
 import org.bicarb.core.forum.domain.Topic;
-import org.bicarb.core.forum.repository.PostRepository;
-import org.hibernate.search.jpa.FullTextEntityManager;
-import org.hibernate.search.jpa.Search;
 import org.illyasviel.elide.spring.boot.annotation.ElideHook;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * Manual update index when topic.title is updated.
+ * Posts are reindexed in batches after commit, see {@link PostIndexer#indexTopic(Integer)}.
  *
  * @author olOwOlo
  */
 @ElideHook(lifeCycle = OnUpdatePreCommit.class, fieldOrMethodName = "title")
 public class TopicTitleUpdatePreCommit implements LifeCycleHook<Topic> {
 
-  private final EntityManager entityManager;
-  private final PostRepository postRepository;
+  private final PostIndexQueue postIndexQueue;
+  private final RelatedTopicCache relatedTopicCache;
 
+  /** Constructor. */
   @Autowired
-  public TopicTitleUpdatePreCommit(EntityManager entityManager, PostRepository postRepository) {
-    this.entityManager = entityManager;
-    this.postRepository = postRepository;
+  public TopicTitleUpdatePreCommit(
+      PostIndexQueue postIndexQueue,
+      RelatedTopicCache relatedTopicCache) {
+    this.postIndexQueue = postIndexQueue;
+    this.relatedTopicCache = relatedTopicCache;
   }
 
   @Override
   public void execute(Topic topic, RequestScope requestScope, Optional<ChangeSpec> changes) {
-    FullTextEntityManager fullTextEntityManager = Search.getFullTextEntityManager(entityManager);
-    postRepository.findByTopic(topic).forEach(fullTextEntityManager::index);
+    SearchIndexGeneration.increase();
+    postIndexQueue.enqueueTopicAfterCommit(topic.getId());
+    relatedTopicCache.clear();
   }
 }
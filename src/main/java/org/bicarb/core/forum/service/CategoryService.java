@@ -26,6 +26,8 @@ import org.bicarb.core.forum.exception.InvalidObjectIdentifierException;
 import org.bicarb.core.forum.exception.UnprocessableEntityException;
 import org.bicarb.core.forum.repository.CategoryRepository;
 import org.bicarb.core.forum.repository.TopicRepository;
+import org.bicarb.core.forum.search.PostIndexQueue;
+import org.bicarb.core.forum.search.SearchIndexGeneration;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
@@ -41,11 +43,17 @@ public class CategoryService {
 
   private final CategoryRepository categoryRepository;
   private final TopicRepository topicRepository;
+  private final PostIndexQueue postIndexQueue;
 
+  /** Constructor. */
   @Autowired
-  public CategoryService(CategoryRepository categoryRepository, TopicRepository topicRepository) {
+  public CategoryService(
+      CategoryRepository categoryRepository,
+      TopicRepository topicRepository,
+      PostIndexQueue postIndexQueue) {
     this.categoryRepository = categoryRepository;
     this.topicRepository = topicRepository;
+    this.postIndexQueue = postIndexQueue;
   }
 
   /**
@@ -113,6 +121,10 @@ public class CategoryService {
         });
 
         topicRepository.invalidateAllTopic();
+        // posts are indexed with all ancestor categories
+        SearchIndexGeneration.increase();
+        postIndexQueue.enqueueTopicsAfterCommit(
+            topicRepository.findIdsByCategoryId(patched.getId()));
       }
     }
 
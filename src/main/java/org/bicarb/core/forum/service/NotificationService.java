@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.service;
+
+import java.time.Instant;
+import javax.annotation.Nullable;
+import org.bicarb.core.forum.notification.UnreadCounter;
+import org.bicarb.core.forum.repository.NotificationRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Notification Service.
+ *
+ * @author olOwOlo
+ */
+@Service
+public class NotificationService {
+
+  private final NotificationRepository notificationRepository;
+  private final UnreadCounter unreadCounter;
+
+  @Autowired
+  public NotificationService(NotificationRepository notificationRepository,
+      UnreadCounter unreadCounter) {
+    this.notificationRepository = notificationRepository;
+    this.unreadCounter = unreadCounter;
+  }
+
+  /**
+   * Mark unread notifications of user as read by one update.
+   * @param userId owner
+   * @param upToId only notifications with id up to this, null for all
+   * @param topicId only notifications of this topic, null for all
+   * @return notifications marked
+   */
+  @Transactional
+  public int markRead(Integer userId, @Nullable Integer upToId, @Nullable Integer topicId) {
+    Instant now = Instant.now();
+    int upTo = upToId != null ? upToId : Integer.MAX_VALUE;
+    int marked = topicId != null
+        ? notificationRepository.markReadInTopicUpTo(userId, topicId, upTo, now)
+        : notificationRepository.markReadUpTo(userId, upTo, now);
+    if (marked > 0) {
+      unreadCounter.add(userId, -marked);
+    }
+    return marked;
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.service;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.bicarb.core.forum.domain.Notification.NotificationType;
+import org.bicarb.core.forum.domain.Post;
+import org.bicarb.core.forum.notification.NotificationEvent;
+import org.bicarb.core.forum.notification.NotificationPush;
+import org.bicarb.core.forum.notification.UnreadCounter;
+import org.bicarb.core.system.config.NotificationProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.util.Pair;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Write all notifications of one post by a single batched insert.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class NotificationWriter {
+
+  private static final Logger logger = LoggerFactory.getLogger(NotificationWriter.class);
+
+  /**
+   * Same as the allocationSize of {@link org.bicarb.core.forum.domain.Notification#getId()}.
+   */
+  private static final int ALLOCATION_SIZE = 5;
+  private static final String ALLOCATE_SQL =
+      "select nextval('notification_sequence') from generate_series(1, ?)";
+  private static final String INSERT_SQL = "insert into notifications"
+      + " (id, type, send_id, to_id, post_id, topic_id, create_at) values (?, ?, ?, ?, ?, ?, ?)";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final NotificationPush notificationPush;
+  private final UnreadCounter unreadCounter;
+  private final int maxFanOut;
+
+  /** Constructor. */
+  @Autowired
+  public NotificationWriter(JdbcTemplate jdbcTemplate, NotificationPush notificationPush,
+      UnreadCounter unreadCounter, NotificationProperties properties) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.notificationPush = notificationPush;
+    this.unreadCounter = unreadCounter;
+    this.maxFanOut = properties.getMaxFanOut();
+  }
+
+  public Batch batch(Post post) {
+    return new Batch(post);
+  }
+
+  /**
+   * Allocate ids the way the pooled generator does, a sequence value N owns (N - 5, N].
+   */
+  private List<Integer> allocateIds(int count) {
+    List<Integer> ids = new ArrayList<>(count);
+    int calls = (count + ALLOCATION_SIZE - 1) / ALLOCATION_SIZE;
+    for (Long hi : jdbcTemplate.queryForList(ALLOCATE_SQL, Long.class, calls)) {
+      for (long id = Math.max(1, hi - ALLOCATION_SIZE + 1); id <= hi && ids.size() < count; id++) {
+        ids.add((int) id);
+      }
+    }
+    if (ids.size() < count) {
+      // the very first value of the sequence owns itself only
+      ids.addAll(allocateIds(count - ids.size()));
+    }
+    return ids;
+  }
+
+  /**
+   * Notifications of one post, deduplicated and capped by `bicarb.notification.max-fan-out`.
+   */
+  public class Batch {
+
+    private final Post post;
+    private final Set<Pair<NotificationType, Integer>> notifications = new LinkedHashSet<>();
+    private int dropped;
+
+    private Batch(Post post) {
+      this.post = post;
+    }
+
+    /**
+     * Add a notification, ignored if the post has reached the fan-out cap.
+     * @param type notification type
+     * @param to user id
+     * @return this
+     */
+    public Batch add(NotificationType type, Integer to) {
+      Pair<NotificationType, Integer> notification = Pair.of(type, to);
+      if (notifications.size() < maxFanOut || notifications.contains(notification)) {
+        notifications.add(notification);
+      } else {
+        dropped++;
+      }
+      return this;
+    }
+
+    /**
+     * Add notifications in order until the cap is reached.
+     */
+    public Batch addAll(NotificationType type, Iterable<Integer> to) {
+      to.forEach(id -> add(type, id));
+      return this;
+    }
+
+    /**
+     * Insert all and count as unread in the current transaction,
+     * pushed to subscribers after commit.
+     */
+    public void write() {
+      if (dropped > 0) {
+        logger.warn("post [{}] reached max fan-out {}, {} notifications dropped",
+            post.getId(), maxFanOut, dropped);
+      }
+      if (notifications.isEmpty()) {
+        return;
+      }
+      List<Integer> ids = allocateIds(notifications.size());
+      Instant now = Instant.now();
+      Timestamp createAt = Timestamp.from(now);
+      List<Object[]> args = new ArrayList<>(notifications.size());
+      List<NotificationEvent> events = new ArrayList<>(notifications.size());
+      Map<Integer, Integer> unread = new HashMap<>();
+      for (Pair<NotificationType, Integer> n : notifications) {
+        Integer id = ids.get(args.size());
+        args.add(new Object[] {id, n.getFirst().name(),
+            post.getAuthor().getId(), n.getSecond(), post.getId(), post.getTopic().getId(),
+            createAt});
+        unread.merge(n.getSecond(), 1, Integer::sum);
+        events.add(NotificationEvent.builder()
+            .id(id)
+            .to(n.getSecond())
+            .type(n.getFirst())
+            .sendId(post.getAuthor().getId())
+            .sendUsername(post.getAuthor().getUsername())
+            .postId(post.getId())
+            .topicId(post.getTopic().getId())
+            .createAt(now)
+            .build());
+      }
+      jdbcTemplate.batchUpdate(INSERT_SQL, args);
+      unreadCounter.add(unread);
+      notificationPush.publishOnCommit(events);
+      logger.info("user [{}] notify {} users in post [{}]",
+          post.getAuthor().getUsername(), args.size(), post.getId());
+      notifications.clear();
+    }
+  }
+}
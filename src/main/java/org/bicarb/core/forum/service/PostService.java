@@ -17,26 +17,27 @@
 package org.bicarb.core.forum.service;
 
 import java.time.Instant;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.List;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.Nullable;
-import org.bicarb.core.forum.domain.Notification;
 import org.bicarb.core.forum.domain.Notification.NotificationType;
 import org.bicarb.core.forum.domain.Post;
 import org.bicarb.core.forum.domain.User;
-import org.bicarb.core.forum.repository.NotificationRepository;
-import org.bicarb.core.forum.repository.UserRepository;
+import org.bicarb.core.forum.recook.RecookFailure;
+import org.bicarb.core.forum.recook.RecookFailureRepository;
+import org.bicarb.core.system.bean.Renderer;
 import org.bicarb.core.system.config.BicarbProperties;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * PostService.
@@ -46,51 +47,98 @@ import org.springframework.transaction.annotation.Transactional;
 @Service
 public class PostService {
 
-  private static final Logger logger = LoggerFactory.getLogger(PostService.class);
-
   private static final Pattern rawPattern = Pattern.compile("@(\\w{1,30}) ");
 
-  private final UserRepository userRepository;
-  private final NotificationRepository notificationRepository;
+  private final UsernameDirectory usernameDirectory;
+  private final NotificationWriter notificationWriter;
+  private final Renderer renderer;
+  private final RecookFailureRepository recookFailureRepository;
   private final String userLinkFormat;
 
   /** Constructor. */
   @Autowired
-  public PostService(UserRepository userRepository,
-      NotificationRepository notificationRepository,
+  public PostService(UsernameDirectory usernameDirectory,
+      NotificationWriter notificationWriter,
+      Renderer renderer,
+      RecookFailureRepository recookFailureRepository,
       BicarbProperties bicarbProperties) {
-    this.userRepository = userRepository;
-    this.notificationRepository = notificationRepository;
+    this.usernameDirectory = usernameDirectory;
+    this.notificationWriter = notificationWriter;
+    this.renderer = renderer;
+    this.recookFailureRepository = recookFailureRepository;
     this.userLinkFormat = bicarbProperties.getUserLinkFormat();
   }
 
+  /**
+   * Side effect: update cooked.
+   * Cooked degraded to escaped text by the render guard is recorded as a {@link RecookFailure}
+   * before commit, so a recook retry repairs it.
+   * @param post post have raw, managed by jpa or persisted before commit
+   * @param topic render with the topic options, i.e. the first post of a topic
+   */
+  public void cook(Post post, boolean topic) {
+    String raw = post.getRaw();
+    Optional<String> cooked = topic ? renderer.tryRenderTopic(raw) : renderer.tryRenderPost(raw);
+    post.setCooked(cooked.orElseGet(() -> Renderer.escaped(raw)));
+    if (cooked.isPresent()) {
+      return;
+    }
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      saveDegraded(post);
+      return;
+    }
+    // the id of a new post is generated when it is persisted
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronizationAdapter() {
+          @Override
+          public void beforeCommit(boolean readOnly) {
+            saveDegraded(post);
+          }
+        });
+  }
+
+  private void saveDegraded(Post post) {
+    recookFailureRepository.save(RecookFailure.builder()
+        .postId(post.getId())
+        .reason(RecookFailure.DEGRADED)
+        .failAt(Instant.now())
+        .build());
+  }
+
   /**
    * Side effect: update cooked.
    * @param post post have been cooked, managed by jpa
    * @param oldRaw old raw content
-   * @see #getMentionedList(Post, String)
-   * @see #sendNotification(List, Post)
+   * @see #getMentionedIds(Post, String)
    */
   public void handleUpdateMention(Post post, @Nullable String oldRaw) {
-    sendNotification(getMentionedList(post, oldRaw), post);
+    notificationWriter.batch(post)
+        .addAll(NotificationType.MENTION, getMentionedIds(post, oldRaw))
+        .write();
   }
 
   /**
    * Side effect: update cooked.
-   * @see PostService#handleUpdateMention(Post, String)
+   * Reply to topic author and mentions are written together.
+   * @param post post have been cooked, managed by jpa
    */
-  public void handleCreateMention(Post post) {
-    handleUpdateMention(post, null);
+  public void handleCreateNotification(Post post) {
+    NotificationWriter.Batch batch = notificationWriter.batch(post);
+    User topicAuthor = post.getTopic().getAuthor();
+    if (!topicAuthor.equals(post.getAuthor())) {
+      batch.add(NotificationType.REPLY, topicAuthor.getId());
+    }
+    batch.addAll(NotificationType.MENTION, getMentionedIds(post, null)).write();
   }
 
   /**
    * Side effect: update cooked.
    * @param post post has cooked field
    * @param oldRaw old raw content
-   * @return users who should be notified
+   * @return ids of users who should be notified, in order of appearance
    */
   @Transactional(readOnly = true)
-  public List<User> getMentionedList(Post post, @Nullable String oldRaw) {
+  public Set<Integer> getMentionedIds(Post post, @Nullable String oldRaw) {
     // superset
     Set<String> existUsername = new HashSet<>();
     if (oldRaw != null) {
@@ -99,10 +147,38 @@ public class PostService {
         existUsername.add(matcher.group(1));
       }
     }
-    List<User> mentionedList = new ArrayList<>();
+    Set<Integer> mentionedIds = new LinkedHashSet<>();
+    post.setCooked(linkMentions(post.getCooked(), existUsername, mentionedIds));
+    return mentionedIds;
+  }
 
-    Matcher matcher = rawPattern.matcher(post.getCooked());
-    String s = matcher.replaceAll(result -> {
+  /**
+   * Link mentions of existing users, no notification, e.g. a line of preview.
+   */
+  public String linkMentions(String cooked) {
+    return linkMentions(cooked, Collections.emptySet(), null);
+  }
+
+  /**
+   * Collect candidates first, then resolve them all at once by {@link UsernameDirectory}.
+   */
+  private String linkMentions(String cooked, Set<String> existUsername,
+      @Nullable Set<Integer> mentionedIds) {
+    Set<String> candidates = new HashSet<>();
+    Matcher matcher = rawPattern.matcher(cooked);
+    while (matcher.find()) {
+      if (!existUsername.contains(matcher.group(1))) {
+        candidates.add(matcher.group(1));
+      }
+    }
+    if (candidates.isEmpty() && existUsername.isEmpty()) {
+      return cooked;
+    }
+    Map<String, Integer> resolved = candidates.isEmpty()
+        ? Collections.emptyMap()
+        : usernameDirectory.resolve(candidates);
+
+    return matcher.reset().replaceAll(result -> {
       String raw = result.group();
       String username = raw.substring(1, raw.length() - 1);
 
@@ -110,37 +186,14 @@ public class PostService {
         return String.format(userLinkFormat, username, username);
       }
 
-      Optional<User> up = userRepository.findByUsernameIgnoreCase(username);
-      up.ifPresent(mentionedList::add);
+      Integer id = resolved.get(UsernameDirectory.normalize(username));
+      if (id != null && mentionedIds != null) {
+        mentionedIds.add(id);
+      }
 
-      return up.isPresent()
+      return id != null
           ? String.format(userLinkFormat, username, username)
           : raw;
     });
-    post.setCooked(s);
-    return mentionedList;
-  }
-
-  /**
-   * sendNotification.
-   * @param users users who should be notified
-   * @param post post managed by jpa
-   */
-  private void sendNotification(List<User> users, Post post) {
-    for (User u: users) {
-      Notification notification = Notification.builder()
-          .type(NotificationType.MENTION)
-          .send(post.getAuthor())
-          .to(u)
-          .post(post)
-          .topic(post.getTopic())
-          .createAt(Instant.now())
-          .build();
-      notificationRepository.save(notification);
-      logger.info("user [{}] mention [{}] in post [{}]",
-          post.getAuthor().getUsername(), u.getUsername(), post.getId());
-
-      // TODO webSocket
-    }
   }
 }
@@ -30,6 +30,7 @@ import org.bicarb.core.system.security.BicarbUserDetails;
 import org.bicarb.core.system.util.AuthenticationUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -43,19 +44,36 @@ import org.springframework.transaction.annotation.Transactional;
 @Service
 public class TopicService {
 
+  private static final String ALLOCATE_POST_INDEX_SQL =
+      "update topics set post_index = post_index + 1 where id = ? returning post_index";
+
   private final TopicRepository topicRepository;
   private final CategoryRepository categoryRepository;
   private final CategoryService categoryService;
+  private final JdbcTemplate jdbcTemplate;
 
   /** Constructor. */
   @Autowired
   public TopicService(
       TopicRepository topicRepository,
       CategoryRepository categoryRepository,
-      CategoryService categoryService) {
+      CategoryService categoryService,
+      JdbcTemplate jdbcTemplate) {
     this.topicRepository = topicRepository;
     this.categoryRepository = categoryRepository;
     this.categoryService = categoryService;
+    this.jdbcTemplate = jdbcTemplate;
+  }
+
+  /**
+   * Allocate the next post index of topic by one atomic update.
+   * The topic row stays locked until commit, concurrent replies wait instead of colliding
+   * on `uk_topic_id_index`, so allocate as late as possible.
+   * @param topicId topic id
+   * @return new index, also the new `post_index` of topic
+   */
+  public int allocatePostIndex(Integer topicId) {
+    return jdbcTemplate.queryForObject(ALLOCATE_POST_INDEX_SQL, Integer.class, topicId);
   }
 
   /**
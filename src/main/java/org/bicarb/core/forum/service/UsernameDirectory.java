@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.bicarb.core.forum.domain.User;
+import org.bicarb.core.forum.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Case-insensitive username to id directory, used to resolve mentions.
+ * A bloom filter of all usernames answers unknown names without touching the database,
+ * known ids are cached, the rest is resolved in one query.
+ * The filter is per node, so on a miss users created since the last sync (by any node)
+ * are added first, at most once per {@link #SYNC_INTERVAL_NANOS}.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class UsernameDirectory {
+
+  private static final Logger logger = LoggerFactory.getLogger(UsernameDirectory.class);
+
+  private static final int MIN_EXPECTED = 10000;
+  private static final double FALSE_POSITIVE = 0.01;
+  private static final long MAX_CACHED_IDS = 100000;
+  private static final long SYNC_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+  /**
+   * Ids are allocated in blocks per node and committed out of order,
+   * so recent ids below the max synced one are read again.
+   */
+  private static final int SYNC_OVERLAP = 100;
+
+  private final UserRepository userRepository;
+  private final TransactionTemplate transactionTemplate;
+  private final Cache<String, Integer> ids = CacheBuilder.newBuilder()
+      .maximumSize(MAX_CACHED_IDS)
+      .build();
+
+  /**
+   * Null until built, then unknown names are filtered here.
+   */
+  private volatile BloomFilter<CharSequence> known;
+  private volatile long expected;
+  /**
+   * Max user id read from the database, and when.
+   */
+  private volatile int maxId;
+  private volatile long syncedAt;
+  private final Object syncLock = new Object();
+  /**
+   * Names added while rebuilding, copied into the new filter, null when not rebuilding.
+   */
+  private List<String> addedWhileRebuilding;
+
+  /** Constructor. */
+  @Autowired
+  public UsernameDirectory(UserRepository userRepository,
+      PlatformTransactionManager transactionManager) {
+    this.userRepository = userRepository;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setReadOnly(true);
+  }
+
+  /**
+   * Load all usernames, sized for twice the current users.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void rebuild() {
+    synchronized (this) {
+      if (addedWhileRebuilding != null) {
+        return;
+      }
+      addedWhileRebuilding = new ArrayList<>();
+    }
+    try {
+      long expectedInsertions = Math.max(MIN_EXPECTED, userRepository.count() * 2);
+      BloomFilter<CharSequence> filter = BloomFilter.create(
+          Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, FALSE_POSITIVE);
+      long startAt = System.nanoTime();
+      int streamedMaxId = transactionTemplate.execute(status -> {
+        int max = 0;
+        try (Stream<Object[]> stream = userRepository.streamIdAndLowerUsername()) {
+          for (Object[] row : (Iterable<Object[]>) stream::iterator) {
+            filter.put((String) row[1]);
+            ids.put((String) row[1], (Integer) row[0]);
+            max = Math.max(max, (Integer) row[0]);
+          }
+        }
+        return max;
+      });
+      synchronized (this) {
+        addedWhileRebuilding.forEach(filter::put);
+        known = filter;
+        expected = expectedInsertions;
+        maxId = Math.max(maxId, streamedMaxId);
+        syncedAt = startAt;
+      }
+      logger.info("Username directory built, about {} users.", filter.approximateElementCount());
+    } finally {
+      synchronized (this) {
+        addedWhileRebuilding = null;
+      }
+    }
+  }
+
+  /**
+   * Register a new (or renamed) user.
+   */
+  public void put(User user) {
+    put(normalize(user.getUsername()), user.getId());
+  }
+
+  private void put(String name, Integer id) {
+    ids.put(name, id);
+    boolean saturated;
+    synchronized (this) {
+      if (addedWhileRebuilding != null) {
+        addedWhileRebuilding.add(name);
+      }
+      if (known == null) {
+        return;
+      }
+      known.put(name);
+      saturated = known.approximateElementCount() > expected;
+    }
+    if (saturated) {
+      rebuild();
+    }
+  }
+
+  /**
+   * Resolve usernames of existing users, at most one query.
+   * @param usernames any case
+   * @return lower case username to user id, unknown names are absent
+   */
+  public Map<String, Integer> resolve(Collection<String> usernames) {
+    Map<String, Integer> resolved = new HashMap<>();
+    Set<String> pending = new HashSet<>();
+    List<String> missed = new ArrayList<>();
+    BloomFilter<CharSequence> filter = known;
+    for (String username : usernames) {
+      String name = normalize(username);
+      if (filter != null && !filter.mightContain(name)) {
+        missed.add(name);
+        continue;
+      }
+      lookup(name, resolved, pending);
+    }
+    if (!missed.isEmpty() && sync()) {
+      filter = known;
+      for (String name : missed) {
+        if (filter.mightContain(name)) {
+          lookup(name, resolved, pending);
+        }
+      }
+    }
+    if (!pending.isEmpty()) {
+      Set<String> upper = new HashSet<>();
+      pending.forEach(name -> upper.add(name.toUpperCase(Locale.ROOT)));
+      for (Object[] row : userRepository.findIdAndUsernameByUpperUsernameIn(upper)) {
+        String name = normalize((String) row[1]);
+        ids.put(name, (Integer) row[0]);
+        resolved.put(name, (Integer) row[0]);
+      }
+    }
+    return resolved;
+  }
+
+  private void lookup(String name, Map<String, Integer> resolved, Set<String> pending) {
+    Integer id = ids.getIfPresent(name);
+    if (id != null) {
+      resolved.put(name, id);
+    } else {
+      pending.add(name);
+    }
+  }
+
+  /**
+   * Add users created since the last sync, unless synced recently.
+   * @return true if synced
+   */
+  private boolean sync() {
+    if (known == null || System.nanoTime() - syncedAt < SYNC_INTERVAL_NANOS) {
+      return false;
+    }
+    synchronized (syncLock) {
+      long startAt = System.nanoTime();
+      if (startAt - syncedAt < SYNC_INTERVAL_NANOS) {
+        return false;
+      }
+      int max = maxId;
+      for (Object[] row : userRepository
+          .findIdAndLowerUsernameByIdGreaterThan(Math.max(0, max - SYNC_OVERLAP))) {
+        put((String) row[1], (Integer) row[0]);
+        max = Math.max(max, (Integer) row[0]);
+      }
+      maxId = max;
+      syncedAt = startAt;
+      return true;
+    }
+  }
+
+  public static String normalize(String username) {
+    return username.toLowerCase(Locale.ROOT);
+  }
+}
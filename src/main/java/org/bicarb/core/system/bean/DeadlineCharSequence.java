@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.system.bean;
+
+/**
+ * Raw markdown which throws {@link DeadlineExceededException} when read after the deadline,
+ * the parser reads every character through it, so a pathological parse is aborted
+ * on the calling thread.
+ *
+ * @author olOwOlo
+ */
+final class DeadlineCharSequence implements CharSequence {
+
+  /**
+   * Check the clock every 1024 reads.
+   */
+  private static final int CHECK_MASK = 1023;
+
+  private final String raw;
+  private long deadline;
+  private int reads;
+
+  DeadlineCharSequence(String raw, long deadlineNanos) {
+    this.raw = raw;
+    this.deadline = deadlineNanos;
+  }
+
+  /**
+   * Parsing is done, rendering the parsed nodes is linear.
+   */
+  void disarm() {
+    deadline = Long.MAX_VALUE;
+  }
+
+  @Override
+  public int length() {
+    return raw.length();
+  }
+
+  @Override
+  public char charAt(int index) {
+    if ((++reads & CHECK_MASK) == 0 && deadline != Long.MAX_VALUE
+        && System.nanoTime() - deadline > 0) {
+      throw new DeadlineExceededException();
+    }
+    return raw.charAt(index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return raw.subSequence(start, end);
+  }
+
+  @Override
+  public String toString() {
+    return raw;
+  }
+
+  static final class DeadlineExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private DeadlineExceededException() {
+      super(null, null, false, false);
+    }
+  }
+}
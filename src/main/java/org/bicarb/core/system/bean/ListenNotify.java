@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.system.bean;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.data.util.Pair;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+/**
+ * Postgres LISTEN/NOTIFY, to reach every node.
+ * One thread LISTENs on a dedicated connection opened outside of the pool, and passes
+ * payloads to the handlers of their channel. After a reconnect, handlers are called with
+ * a null payload, since notifications meanwhile are lost.
+ *
+ * @author olOwOlo
+ */
+@Component
+public class ListenNotify {
+
+  private static final Logger logger = LoggerFactory.getLogger(ListenNotify.class);
+
+  private static final String NOTIFY_SQL = "select pg_notify(?, payload) from unnest(?) payload";
+  private static final String NOTIFY_ONE_SQL = "select pg_notify(?, ?)";
+  private static final int POLL_MILLIS = 200;
+  private static final long RECONNECT_MILLIS = 5000;
+
+  private final JdbcTemplate jdbcTemplate;
+  private final DataSourceProperties dataSourceProperties;
+  private final Map<String, List<Consumer<String>>> handlers = new ConcurrentHashMap<>();
+  /**
+   * Channel and payload sent by the listening thread, guarded by itself.
+   */
+  private final Set<Pair<String, String>> outgoing = new LinkedHashSet<>();
+
+  private Thread listener;
+  private volatile boolean running;
+
+  /** Constructor. */
+  @Autowired
+  public ListenNotify(JdbcTemplate jdbcTemplate, DataSourceProperties dataSourceProperties) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.dataSourceProperties = dataSourceProperties;
+  }
+
+  @PostConstruct
+  void start() {
+    running = true;
+    listener = new ThreadFactoryBuilder().setNameFormat("listen-notify").setDaemon(true)
+        .build().newThread(this::listen);
+    listener.start();
+  }
+
+  @PreDestroy
+  void stop() throws InterruptedException {
+    running = false;
+    listener.interrupt();
+    listener.join(RECONNECT_MILLIS);
+  }
+
+  /**
+   * Handle payloads of a channel, LISTENed within a poll interval.
+   * @param handler called on the listening thread, should not block
+   */
+  public void subscribe(String channel, Consumer<String> handler) {
+    handlers.computeIfAbsent(channel, key -> new CopyOnWriteArrayList<>()).add(handler);
+  }
+
+  /**
+   * NOTIFY in the current transaction, so payloads are delivered on commit only.
+   * Every payload must be shorter than 8000 bytes.
+   */
+  public void notifyOnCommit(String channel, Collection<String> payloads) {
+    if (payloads.isEmpty()) {
+      return;
+    }
+    String[] array = payloads.toArray(new String[0]);
+    jdbcTemplate.query(NOTIFY_SQL,
+        ps -> {
+          ps.setString(1, channel);
+          ps.setArray(2, ps.getConnection().createArrayOf("text", array));
+        },
+        (RowCallbackHandler) rs -> { });
+  }
+
+  /**
+   * NOTIFY from the listening thread soon, without a connection of the pool,
+   * equal pending payloads are sent once.
+   */
+  public void notifyLater(String channel, String payload) {
+    synchronized (outgoing) {
+      outgoing.add(Pair.of(channel, payload));
+    }
+  }
+
+  private void listen() {
+    Set<String> listening = new HashSet<>();
+    boolean connected = false;
+    while (running) {
+      try (Connection connection = DriverManager.getConnection(
+          dataSourceProperties.determineUrl(),
+          dataSourceProperties.determineUsername(),
+          dataSourceProperties.determinePassword())) {
+        listening.clear();
+        if (connected) {
+          handlers.keySet().forEach(channel -> dispatch(channel, null));
+        }
+        connected = true;
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        while (running) {
+          for (String channel : handlers.keySet()) {
+            if (listening.add(channel)) {
+              try (Statement statement = connection.createStatement()) {
+                statement.execute("LISTEN \"" + channel + "\"");
+              }
+            }
+          }
+          send(connection);
+          PGNotification[] notifications = pgConnection.getNotifications(POLL_MILLIS);
+          if (notifications == null) {
+            continue;
+          }
+          for (PGNotification notification : notifications) {
+            dispatch(notification.getName(), notification.getParameter());
+          }
+        }
+      } catch (SQLException e) {
+        if (!running) {
+          return;
+        }
+        logger.warn("LISTEN connection failed, reconnect in {}ms.", RECONNECT_MILLIS, e);
+        try {
+          TimeUnit.MILLISECONDS.sleep(RECONNECT_MILLIS);
+        } catch (InterruptedException ie) {
+          return;
+        }
+      }
+    }
+  }
+
+  private void send(Connection connection) throws SQLException {
+    List<Pair<String, String>> batch;
+    synchronized (outgoing) {
+      if (outgoing.isEmpty()) {
+        return;
+      }
+      batch = new ArrayList<>(outgoing);
+      outgoing.clear();
+    }
+    try (PreparedStatement statement = connection.prepareStatement(NOTIFY_ONE_SQL)) {
+      for (Pair<String, String> notification : batch) {
+        statement.setString(1, notification.getFirst());
+        statement.setString(2, notification.getSecond());
+        statement.execute();
+      }
+    } catch (SQLException e) {
+      synchronized (outgoing) {
+        outgoing.addAll(batch);
+      }
+      throw e;
+    }
+  }
+
+  private void dispatch(String channel, String payload) {
+    for (Consumer<String> handler : handlers.getOrDefault(channel, new ArrayList<>())) {
+      try {
+        handler.accept(payload);
+      } catch (RuntimeException e) {
+        logger.error("handle notification of channel " + channel + " failed", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.system.bean;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Render cache and guard statistics.
+ *
+ * @author olOwOlo
+ */
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class RenderCacheStats {
+
+  private Long hits;
+  private Long misses;
+  private Double hitRate;
+  private Long evictions;
+  /**
+   * Cached documents.
+   */
+  private Long size;
+  /**
+   * Renders over the size budget, without extensions.
+   */
+  private Long oversized;
+  /**
+   * Renders over the time budget, as escaped text.
+   */
+  private Long timedOut;
+}
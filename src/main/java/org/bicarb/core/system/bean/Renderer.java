@@ -16,8 +16,15 @@
 
 package org.bicarb.core.system.bean;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import com.vladsch.flexmark.Extension;
+import com.vladsch.flexmark.ast.Node;
 import com.vladsch.flexmark.ext.admonition.AdmonitionExtension;
 import com.vladsch.flexmark.ext.anchorlink.AnchorLinkExtension;
 import com.vladsch.flexmark.ext.autolink.AutolinkExtension;
@@ -33,19 +40,39 @@ import com.vladsch.flexmark.ext.youtube.embedded.YouTubeLinkExtension;
 import com.vladsch.flexmark.html.HtmlRenderer;
 import com.vladsch.flexmark.parser.Parser;
 import com.vladsch.flexmark.superscript.SuperscriptExtension;
+import com.vladsch.flexmark.util.html.Escaping;
 import com.vladsch.flexmark.util.options.MutableDataSet;
+import com.vladsch.flexmark.util.sequence.BasedSequenceImpl;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 import lombok.Getter;
+import org.bicarb.core.system.bean.DeadlineCharSequence.DeadlineExceededException;
+import org.bicarb.core.system.config.RenderProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
  * Renderer Markdown.
+ * Cooked html is cached by murmur3_128 of the option set and raw,
+ * so identical content is parsed once until evicted. Renders degraded to escaped text
+ * by the guard are never cached, the next render tries again.
  *
  * @author olOwOlo
  */
 @Component
 public class Renderer {
 
+  private static final Logger logger = LoggerFactory.getLogger(Renderer.class);
+
+  private static final HashFunction MURMUR3_128 = Hashing.murmur3_128();
+
   private static MutableDataSet getCommonOptions() {
     return new MutableDataSet()
         .set(HtmlRenderer.SOFT_BREAK, "<br />\n")
@@ -82,6 +109,11 @@ public class Renderer {
   private static final MutableDataSet POST_OPTIONS = getCommonOptions()
       .set(Parser.EXTENSIONS, POST_EXTENSIONS);
 
+  /**
+   * Content over the size budget, CommonMark only.
+   */
+  private static final MutableDataSet SAFE_OPTIONS = getCommonOptions();
+
   @Getter
   private final Parser topicParser = Parser.builder(TOPIC_OPTIONS).build();
   @Getter
@@ -91,11 +123,210 @@ public class Renderer {
   @Getter
   private final HtmlRenderer postRenderer = HtmlRenderer.builder(POST_OPTIONS).build();
 
+  private final Parser safeParser = Parser.builder(SAFE_OPTIONS).build();
+  private final HtmlRenderer safeRenderer = HtmlRenderer.builder(SAFE_OPTIONS).build();
+
+  private final Cache<HashCode, String> cookedCache;
+  private final int streamMinLength;
+  private final RenderProperties.Guard guard;
+  private final LongAdder oversized = new LongAdder();
+  private final LongAdder timedOut = new LongAdder();
+
+  /** Constructor. */
+  @Autowired
+  public Renderer(RenderProperties renderProperties) {
+    this.streamMinLength = renderProperties.getStreamMinLength();
+    this.guard = renderProperties.getGuard();
+    this.cookedCache = CacheBuilder.newBuilder()
+        .maximumWeight(renderProperties.getCache().getMaxChars())
+        .weigher((HashCode key, String cooked) -> cooked.length())
+        .recordStats()
+        .build();
+  }
+
   public String renderTopic(String raw) {
-    return topicRenderer.render(topicParser.parse(raw));
+    return tryRenderTopic(raw).orElseGet(() -> escaped(raw));
+  }
+
+  /**
+   * Render into out, e.g. the response writer.
+   * @see #render(String, String, Parser, HtmlRenderer, Appendable)
+   */
+  public void renderTopic(String raw, Appendable out) throws IOException {
+    render("topic", raw, topicParser, topicRenderer, out);
   }
 
   public String renderPost(String raw) {
-    return postRenderer.render(postParser.parse(raw));
+    return tryRenderPost(raw).orElseGet(() -> escaped(raw));
+  }
+
+  /**
+   * Render into out, e.g. the response writer.
+   * @see #render(String, String, Parser, HtmlRenderer, Appendable)
+   */
+  public void renderPost(String raw, Appendable out) throws IOException {
+    render("post", raw, postParser, postRenderer, out);
+  }
+
+  /**
+   * Cached render, e.g. content to be stored, which should be recooked if degraded.
+   * @return empty if the render is degraded to escaped text, see {@link #escaped(String)}
+   */
+  public Optional<String> tryRenderTopic(String raw) {
+    return cached(key("topic", raw), () -> guarded(raw, topicParser, topicRenderer));
+  }
+
+  /**
+   * Cached render.
+   * @see #tryRenderTopic(String)
+   */
+  public Optional<String> tryRenderPost(String raw) {
+    return cached(key("post", raw), () -> guarded(raw, postParser, postRenderer));
+  }
+
+  /**
+   * Render without touching the cache, e.g. bulk jobs which should not evict live content.
+   * @return empty if the render is degraded to escaped text
+   */
+  public Optional<String> renderTopicUncached(String raw) throws IOException {
+    return uncached(raw, topicParser, topicRenderer);
+  }
+
+  /**
+   * Render without touching the cache.
+   * @see #renderTopicUncached(String)
+   */
+  public Optional<String> renderPostUncached(String raw) throws IOException {
+    return uncached(raw, postParser, postRenderer);
+  }
+
+  /**
+   * Hit / miss statistics of the render cache, renders degraded by the guard.
+   */
+  public RenderCacheStats getCacheStats() {
+    CacheStats stats = cookedCache.stats();
+    return RenderCacheStats.builder()
+        .hits(stats.hitCount())
+        .misses(stats.missCount())
+        .hitRate(stats.hitRate())
+        .evictions(stats.evictionCount())
+        .size(cookedCache.size())
+        .oversized(oversized.sum())
+        .timedOut(timedOut.sum())
+        .build();
+  }
+
+  /**
+   * Content shorter than `bicarb.render.stream-min-length` goes through the cache,
+   * longer content is written to out as it is rendered, without a full html string.
+   */
+  private void render(String options, String raw, Parser parser, HtmlRenderer htmlRenderer,
+      Appendable out) throws IOException {
+    HashCode key = key(options, raw);
+    if (raw.length() < streamMinLength) {
+      out.append(cached(key, () -> guarded(raw, parser, htmlRenderer))
+          .orElseGet(() -> escaped(raw)));
+      return;
+    }
+    String cooked = cookedCache.getIfPresent(key);
+    if (cooked != null) {
+      out.append(cooked);
+    } else {
+      guarded(raw, parser, htmlRenderer, out);
+    }
+  }
+
+  private Optional<String> uncached(String raw, Parser parser, HtmlRenderer htmlRenderer)
+      throws IOException {
+    StringBuilder cooked = new StringBuilder(raw.length() * 2);
+    return guarded(raw, parser, htmlRenderer, cooked)
+        ? Optional.of(cooked.toString())
+        : Optional.empty();
+  }
+
+  /**
+   * Loader of the cache.
+   * @throws DegradedRenderException so the escaped text is not cached
+   */
+  private String guarded(String raw, Parser parser, HtmlRenderer htmlRenderer)
+      throws IOException, DegradedRenderException {
+    StringBuilder cooked = new StringBuilder(raw.length() * 2);
+    if (!guarded(raw, parser, htmlRenderer, cooked)) {
+      throw new DegradedRenderException();
+    }
+    return cooked.toString();
+  }
+
+  /**
+   * Content over `bicarb.render.guard.max-length` is parsed without extensions,
+   * a parse over `bicarb.render.guard.timeout` is aborted and raw is rendered as escaped text.
+   * Nothing is written to out before parsing is done.
+   * @return false if rendered as escaped text
+   */
+  private boolean guarded(String raw, Parser parser, HtmlRenderer htmlRenderer, Appendable out)
+      throws IOException {
+    if (raw.length() > guard.getMaxLength()) {
+      oversized.increment();
+      logger.warn("Render {} chars over the size budget without extensions.", raw.length());
+      parser = safeParser;
+      htmlRenderer = safeRenderer;
+    }
+
+    DeadlineCharSequence input = new DeadlineCharSequence(raw,
+        System.nanoTime() + guard.getTimeout().toNanos());
+    Node document;
+    try {
+      document = parser.parse(BasedSequenceImpl.of(input));
+    } catch (DeadlineExceededException | StackOverflowError e) {
+      timedOut.increment();
+      logger.warn("Render {} chars aborted ({}), fall back to escaped text.",
+          raw.length(), e.getClass().getSimpleName());
+      out.append(escaped(raw));
+      return false;
+    }
+    input.disarm();
+    htmlRenderer.render(document, out);
+    return true;
+  }
+
+  private HashCode key(String options, String raw) {
+    return MURMUR3_128.newHasher()
+        .putString(options, StandardCharsets.UTF_8)
+        .putString(raw, StandardCharsets.UTF_8)
+        .hash();
+  }
+
+  /**
+   * Html of raw degraded to escaped text, rendered when the guard aborts a parse.
+   */
+  public static String escaped(String raw) {
+    return "<p>" + Escaping.escapeHtml(raw, false).replace("\n", "<br />\n") + "</p>\n";
+  }
+
+  /**
+   * Concurrent renders of the same content wait for the first one.
+   * @return empty if degraded
+   */
+  private Optional<String> cached(HashCode key, Callable<String> render) {
+    try {
+      return Optional.of(cookedCache.get(key, render));
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof DegradedRenderException) {
+        return Optional.empty();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * A render aborted by the guard, thrown by the cache loader since failed loads are not cached.
+   */
+  private static final class DegradedRenderException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private DegradedRenderException() {
+      super(null, null, false, false);
+    }
   }
 }
@@ -24,6 +24,7 @@ import org.bicarb.core.forum.repository.SecretRepository;
 import org.bicarb.core.system.config.BicarbProperties.Mail;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -43,7 +44,10 @@ import org.springframework.web.context.request.RequestContextListener;
 @EnableCaching
 @EnableAsync
 @EnableScheduling
-@EntityScan({"org.bicarb.core..*.domain", "org.bicarb.core.system.security"})
+@EnableConfigurationProperties({SearchProperties.class, RenderProperties.class,
+    NotificationProperties.class})
+@EntityScan({"org.bicarb.core..*.domain", "org.bicarb.core.forum.search",
+    "org.bicarb.core.forum.recook", "org.bicarb.core.system.security"})
 @Configuration
 public class GenericConfig {
 
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.system.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Notification properties, prefix `bicarb.notification`.
+ *
+ * @author olOwOlo
+ */
+@Data
+@ConfigurationProperties(prefix = "bicarb.notification")
+public class NotificationProperties {
+
+  /**
+   * Max notifications sent for one post, the rest mentions are ignored.
+   */
+  private int maxFanOut = 50;
+  private Push push = new Push();
+  /**
+   * Delay between reconciling unread counters with notifications.
+   */
+  private Duration unreadReconcileInterval = Duration.ofHours(1);
+  private Retention retention = new Retention();
+
+  @Data
+  public static class Push {
+    /**
+     * Recent notifications kept per subscribed user, replayed on resume.
+     */
+    private int queueSize = 20;
+    /**
+     * Max notifications replayed from database on resume, more are a `resync` event.
+     */
+    private int maxReplay = 200;
+    /**
+     * Resume from database replays notifications created this long before the last one,
+     * since ids are not in commit order, the client drops ids it has seen.
+     */
+    private Duration resumeOverlap = Duration.ofSeconds(30);
+    /**
+     * Max open streams (tabs) per user, the oldest is closed first.
+     */
+    private int maxStreams = 4;
+    /**
+     * Max users whose queues are kept in memory.
+     */
+    private long maxUsers = 10000;
+    /**
+     * Queue of a user without any stream is dropped after this.
+     */
+    private Duration queueTtl = Duration.ofMinutes(10);
+    /**
+     * Stream is closed after this, then the client reconnects with its last id.
+     */
+    private Duration timeout = Duration.ofMinutes(30);
+    /**
+     * Delay between heartbeat comments, keeps proxies from closing idle streams.
+     */
+    private Duration heartbeat = Duration.ofSeconds(15);
+    /**
+     * Threads sending events to streams, sends of one user are in order.
+     */
+    private int sendThreads = 4;
+  }
+
+  @Data
+  public static class Retention {
+    private boolean enabled = true;
+    /**
+     * Read notifications older than this are deleted.
+     */
+    private Duration read = Duration.ofDays(90);
+    /**
+     * Rows deleted per statement, each in its own transaction.
+     */
+    private int chunkSize = 5000;
+    /**
+     * Delay between runs.
+     */
+    private Duration interval = Duration.ofHours(1);
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.system.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Markdown rendering properties, prefix `bicarb.render`.
+ *
+ * @author olOwOlo
+ */
+@Data
+@ConfigurationProperties(prefix = "bicarb.render")
+public class RenderProperties {
+
+  /**
+   * Content at least this long is rendered straight into the writer, not cached.
+   */
+  private int streamMinLength = 64 * 1024;
+  private Cache cache = new Cache();
+  private Preview preview = new Preview();
+  private Guard guard = new Guard();
+  private Recook recook = new Recook();
+
+  @Data
+  public static class Cache {
+    /**
+     * Max characters of cached html, least recently used are evicted, 0 to disable.
+     */
+    private long maxChars = 16 * 1024 * 1024;
+  }
+
+  @Data
+  public static class Preview {
+    /**
+     * Previews at least this long are rendered block by block.
+     */
+    private int incrementalMinLength = 4096;
+  }
+
+  @Data
+  public static class Guard {
+    /**
+     * Max parse time of one document, then it is rendered as escaped text.
+     */
+    private Duration timeout = Duration.ofSeconds(2);
+    /**
+     * Content longer than this is rendered without extensions.
+     */
+    private int maxLength = 100000;
+  }
+
+  @Data
+  public static class Recook {
+    /**
+     * Render threads, keep some cores for live traffic.
+     */
+    private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    /**
+     * Posts loaded, rendered and written back per batch.
+     */
+    private int batchSize = 200;
+    /**
+     * Max posts recooked per second.
+     */
+    private double postsPerSecond = 500;
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.system.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Search tuning properties, prefix `bicarb.search`.
+ *
+ * @author olOwOlo
+ */
+@Data
+@ConfigurationProperties(prefix = "bicarb.search")
+public class SearchProperties {
+
+  private Rebuild rebuild = new Rebuild();
+  private Async async = new Async();
+  private Highlight highlight = new Highlight();
+  private Count count = new Count();
+  private Paging paging = new Paging();
+  private Sharding sharding = new Sharding();
+  private Related related = new Related();
+  private Analyzer analyzer = new Analyzer();
+
+  @Data
+  public static class Rebuild {
+    /**
+     * Threads used to load and index partitions concurrently, each holds one connection,
+     * capped at half of the connection pool (hikari maximum-pool-size, 10 by default).
+     */
+    private int threads = 4;
+    /**
+     * Post id range covered by one partition.
+     */
+    private int partitionSize = 10000;
+    /**
+     * Posts loaded per fetch and written per index flush.
+     */
+    private int batchSize = 100;
+    /**
+     * Resume an interrupted rebuild from its checkpoints when the application is ready.
+     */
+    private boolean resumeOnStartup = true;
+  }
+
+  @Data
+  public static class Async {
+    /**
+     * Index post changes on background workers after commit,
+     * otherwise hibernate search indexes them in the committing thread.
+     */
+    private boolean enabled = true;
+    /**
+     * Worker threads.
+     */
+    private int threads = 1;
+    /**
+     * Max distinct posts waiting in the queue, posts over it are dropped
+     * and indexed by the next recover pass, never by the committing thread.
+     */
+    private int capacity = 10000;
+    /**
+     * Max posts loaded and indexed by a worker at once.
+     */
+    private int batchSize = 100;
+    /**
+     * Max time a post waits for its batch to be filled.
+     */
+    private Duration maxLag = Duration.ofMillis(500);
+    /**
+     * Delay between checks for dropped or, after a crash, lost posts to index again.
+     */
+    private Duration recoverInterval = Duration.ofMinutes(1);
+  }
+
+  @Data
+  public static class Highlight {
+    /**
+     * Chars of cooked html covered by one fragment.
+     */
+    private int fragmentSize = 150;
+    /**
+     * Max fragments per hit, 0 to disable highlighting.
+     */
+    private int maxFragments = 3;
+  }
+
+  @Data
+  public static class Count {
+    /**
+     * How `totalRecords` of search results is counted.
+     */
+    private Mode mode = Mode.EXACT;
+    /**
+     * Max matches collected in {@link Mode#CAPPED} and {@link Mode#APPROXIMATE} modes,
+     * hits are ranked among the matches collected in document order only, so better
+     * matches past the cap are never returned.
+     */
+    private int cap = 10000;
+
+    public enum Mode {
+      /**
+       * Collect and count every match.
+       */
+      EXACT,
+      /**
+       * Stop collecting at the cap, total is the cap and marked as a lower bound.
+       */
+      CAPPED,
+      /**
+       * Stop collecting at the cap, total is extrapolated from the index part covered.
+       */
+      APPROXIMATE
+    }
+  }
+
+  @Data
+  public static class Paging {
+    /**
+     * Max offset of page number paging, deeper pages must use the search-after cursor.
+     */
+    private int maxOffset = 1000;
+  }
+
+  @Data
+  public static class Sharding {
+    /**
+     * Period of a post shard, `year` or `month`, also used as
+     * `hibernate.search.posts.sharding_strategy.period`.
+     */
+    private String period = "year";
+    /**
+     * When closed shards are force merged.
+     */
+    private String mergeCron = "0 30 4 * * *";
+  }
+
+  @Data
+  public static class Related {
+    /**
+     * Related topics kept per topic.
+     */
+    private int size = 5;
+    /**
+     * Topics replied within this window are refreshed in the background.
+     */
+    private Duration activeWindow = Duration.ofDays(7);
+    /**
+     * Stored relations older than this are recomputed.
+     */
+    private Duration maxAge = Duration.ofHours(6);
+    /**
+     * Max topics refreshed per run.
+     */
+    private int batchSize = 200;
+    /**
+     * Delay between background refresh runs.
+     */
+    private Duration refreshInterval = Duration.ofMinutes(10);
+  }
+
+  @Data
+  public static class Analyzer {
+    /**
+     * Preload HanLP dictionaries at startup, searches wait for it.
+     */
+    private boolean warmUp = true;
+    /**
+     * How long a search waits for the warm-up before 503.
+     */
+    private Duration readyTimeout = Duration.ofSeconds(5);
+    /**
+     * Warm-up longer than this is logged as a warning.
+     */
+    private Duration budget = Duration.ofSeconds(30);
+    /**
+     * Directory containing HanLP `data/`, memory mapped if set, otherwise read from classpath.
+     */
+    private String dictionaryRoot;
+  }
+}
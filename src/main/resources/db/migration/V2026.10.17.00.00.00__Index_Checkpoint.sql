@@ -0,0 +1,8 @@
+create table if not exists index_checkpoints (
+  from_id   integer                 not null constraint index_checkpoints_pkey primary key,
+  to_id     integer                 not null,
+  last_id   integer,
+  done      boolean default false   not null,
+  since     timestamp,
+  create_at timestamp default now() not null
+);
@@ -0,0 +1,6 @@
+create table if not exists topic_relations (
+  topic_id    integer                 not null constraint topic_relations_pkey primary key
+    constraint fk_topic_relations_topic references topics on delete cascade,
+  related_ids varchar(1024)           not null,
+  compute_at  timestamp default now() not null
+);
@@ -0,0 +1,6 @@
+create table if not exists recook_checkpoints (
+  id        integer                 not null constraint recook_checkpoints_pkey primary key,
+  last_id   integer,
+  max_id    integer                 not null,
+  create_at timestamp default now() not null
+);
@@ -0,0 +1,9 @@
+create table if not exists notification_counters (
+  user_id integer not null constraint notification_counters_pkey primary key,
+  unread  integer not null
+);
+
+create index if not exists notifications_unread_index on notifications (to_id) where read_at is null;
+
+insert into notification_counters (user_id, unread)
+  select to_id, count(*) from notifications where read_at is null group by to_id;
@@ -0,0 +1,6 @@
+create table if not exists recook_failures (
+  post_id integer                 not null constraint recook_failures_pkey primary key
+    constraint fk_recook_failures_post references posts on delete cascade,
+  reason  varchar(255)            not null,
+  fail_at timestamp default now() not null
+);
@@ -0,0 +1,2 @@
+create index if not exists notifications_read_create_at_index on notifications (create_at)
+  where read_at is not null;
@@ -0,0 +1,4 @@
+create table if not exists index_queue_state (
+  id       integer   not null constraint index_queue_state_pkey primary key,
+  clean_at timestamp not null
+);
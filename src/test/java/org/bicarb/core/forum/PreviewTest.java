@@ -16,17 +16,29 @@
 
 package org.bicarb.core.forum;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.time.Duration;
 import org.bicarb.core.BaseSetup;
+import org.bicarb.core.forum.preview.PreviewRenderer;
+import org.bicarb.core.system.bean.Renderer;
+import org.bicarb.core.system.config.RenderProperties;
+import org.hamcrest.Matchers;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * @author olOwOlo
  */
 public class PreviewTest extends BaseSetup {
 
+  @Autowired
+  private Renderer renderer;
+  @Autowired
+  private PreviewRenderer previewRenderer;
+
   @Test
   void testPreviewTopicBody() throws Exception {
     mockRequest.postJson(mockMvc, "/api/preview", jsonBody.getJson("/preview/topicBody.json"))
@@ -41,6 +53,99 @@ public class PreviewTest extends BaseSetup {
         .andExpect(jsonPath("$.body").value("<h1>heading</h1>\n<p><a class=\"user-link\" href=\"/user/admin\">@admin </a>hello!</p>\n"));
   }
 
+  @Test
+  void testRenderCache() {
+    String raw = "# cached\n\nhello **world**";
+    long hits = renderer.getCacheStats().getHits();
+    assertThat(renderer.renderPost(raw)).isEqualTo(renderer.renderPost(raw));
+    assertThat(renderer.getCacheStats().getHits()).isEqualTo(hits + 1);
+    // option set is part of the key
+    assertThat(renderer.renderTopic(raw)).isNotEqualTo(renderer.renderPost(raw));
+  }
+
+  @Test
+  void testStreamRender() throws Exception {
+    String raw = "paragraph @admin with **strong** text\n\n".repeat(2000);
+    StringBuilder out = new StringBuilder();
+    renderer.renderPost(raw, out);
+    assertThat(out.toString()).isEqualTo(renderer.renderPost(raw));
+
+    mockRequest.postJson(mockMvc, "/api/preview",
+        "{\"body\": \"" + raw.replace("\n", "\\n") + "\", \"topicBody\": false}")
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.topicBody").value(false))
+        .andExpect(jsonPath("$.body").value(Matchers.startsWith(
+            "<p>paragraph <a class=\"user-link\" href=\"/user/admin\">@admin </a>with")));
+  }
+
+  @Test
+  void testRenderGuard() {
+    long oversized = renderer.getCacheStats().getOversized();
+    String raw = "see http://example.com\n\n".repeat(5000);
+    // over the size budget, autolink is skipped
+    assertThat(renderer.renderPost(raw)).startsWith("<p>see http://example.com</p>");
+    assertThat(renderer.getCacheStats().getOversized()).isEqualTo(oversized + 1);
+  }
+
+  @Test
+  void testRenderTimeout() throws Exception {
+    RenderProperties properties = new RenderProperties();
+    properties.getGuard().setTimeout(Duration.ZERO);
+    Renderer expired = new Renderer(properties);
+    String raw = "a < b **strong**\n".repeat(200);
+    // aborted at the first deadline check, rendered as escaped text
+    assertThat(expired.renderPost(raw)).startsWith("<p>a &lt; b **strong**<br />\n");
+    assertThat(expired.getCacheStats().getTimedOut()).isEqualTo(1);
+    // degraded renders are not cached
+    assertThat(expired.getCacheStats().getSize()).isEqualTo(0);
+    assertThat(expired.renderPostUncached(raw)).isEmpty();
+    assertThat(renderer.renderPostUncached(raw)).contains(renderer.renderPost(raw));
+  }
+
+  @Test
+  void testIncrementalPreview() {
+    StringBuilder raw = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      raw.append("## section ").append(i).append("\n\nsee [home][home] and http://example.com\n\n")
+          .append("- a\n- b\n\n  c\n\n```\ncode\n\ncode\n```\n\n| a | b |\n|---|---|\n| 1 | 2 |\n\n");
+    }
+    raw.append("[home]: https://example.com \"Home\"\n");
+    assertThat(previewRenderer.render(raw.toString(), true))
+        .isEqualTo(renderer.renderTopic(raw.toString()));
+    assertThat(previewRenderer.render(raw.toString(), false))
+        .isEqualTo(renderer.renderPost(raw.toString()));
+
+    assertThat(renderedByBlocks(raw.toString())).isTrue();
+
+    // footnotes are numbered by their last reference across blocks, the section is rendered once
+    raw.append("note[^b] and[^a]\n\n> again[^b]\n\n[^a]: first *note*\n\n    more [home]\n\n")
+        .append("- a [^a]\n\n[^b]: second\n");
+    assertThat(previewRenderer.render(raw.toString(), true))
+        .isEqualTo(renderer.renderTopic(raw.toString()));
+    assertThat(renderedByBlocks(raw.toString())).isTrue();
+
+    // lazy footnote continuation and admonitions need the whole document
+    for (String global : new String[] {"[^c]: lazy\ncontinuation\n", "!!! note\n    admonition\n"}) {
+      String document = raw + "\n" + global;
+      assertThat(previewRenderer.render(document, true))
+          .isEqualTo(renderer.renderTopic(document));
+      assertThat(renderedByBlocks(document)).isFalse();
+    }
+    // so do duplicate header ids, found after the blocks are rendered
+    raw.append("\n## section 0\n");
+    assertThat(previewRenderer.render(raw.toString(), true))
+        .isEqualTo(renderer.renderTopic(raw.toString()));
+  }
+
+  /**
+   * A whole document render is a single cache lookup.
+   */
+  private boolean renderedByBlocks(String raw) {
+    long lookups = renderer.getCacheStats().getHits() + renderer.getCacheStats().getMisses();
+    previewRenderer.render(raw, true);
+    return renderer.getCacheStats().getHits() + renderer.getCacheStats().getMisses() - lookups > 1;
+  }
+
   @Test
   void testInvalid() throws Exception {
     mockRequest.postJson(mockMvc, "/api/preview", "{}")
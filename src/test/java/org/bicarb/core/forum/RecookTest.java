@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bicarb.core.forum;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.Duration;
+import org.bicarb.core.BaseSetup;
+import org.bicarb.core.forum.domain.Post;
+import org.bicarb.core.forum.recook.PostRecooker;
+import org.bicarb.core.forum.recook.RecookCheckpointRepository;
+import org.bicarb.core.forum.recook.RecookFailure;
+import org.bicarb.core.forum.recook.RecookFailureRepository;
+import org.bicarb.core.forum.recook.RecookProgress;
+import org.bicarb.core.forum.repository.PostRepository;
+import org.bicarb.core.forum.service.NotificationWriter;
+import org.bicarb.core.forum.service.PostService;
+import org.bicarb.core.forum.service.UsernameDirectory;
+import org.bicarb.core.system.bean.Renderer;
+import org.bicarb.core.system.config.BicarbProperties;
+import org.bicarb.core.system.config.RenderProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * @author olOwOlo
+ */
+public class RecookTest extends BaseSetup {
+
+  @Autowired
+  private PostRecooker postRecooker;
+  @Autowired
+  private RecookCheckpointRepository checkpointRepository;
+  @Autowired
+  private PostRepository postRepository;
+  @Autowired
+  private RecookFailureRepository failureRepository;
+  @Autowired
+  private UsernameDirectory usernameDirectory;
+  @Autowired
+  private NotificationWriter notificationWriter;
+  @Autowired
+  private BicarbProperties bicarbProperties;
+
+  @Test
+  void testRecook() throws Exception {
+    assertThat(postRecooker.recook(false)).isTrue();
+    RecookProgress progress = postRecooker.getProgress().orElseThrow();
+    assertThat(progress.getRunning()).isFalse();
+    assertThat(progress.getDone()).isEqualTo(postRepository.count());
+    assertThat(checkpointRepository.existsById(PostRecooker.CHECKPOINT_ID)).isFalse();
+
+    // nothing left to resume, start over
+    assertThat(postRecooker.recook(true)).isTrue();
+    assertThat(postRecooker.getProgress().orElseThrow().getChanged()).isEqualTo(0);
+
+    // nothing failed, nothing to retry
+    assertThat(failureRepository.count()).isEqualTo(0);
+    assertThat(postRecooker.retryFailed()).isTrue();
+    assertThat(postRecooker.getProgress().orElseThrow().getDone()).isEqualTo(0);
+
+    mockMvc.perform(get("/api/recook/progress"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.running").value(false));
+  }
+
+  @Test
+  void testDegradedCook() {
+    RenderProperties properties = new RenderProperties();
+    properties.getGuard().setTimeout(Duration.ZERO);
+    PostService expired = new PostService(usernameDirectory, notificationWriter,
+        new Renderer(properties), failureRepository, bicarbProperties);
+    Post post = postRepository.getOne(2);
+    post.setRaw("a < b **strong**\n".repeat(200));
+    expired.cook(post, false);
+    assertThat(post.getCooked()).isEqualTo(Renderer.escaped(post.getRaw()));
+
+    // recorded before commit, for the retry
+    assertThat(failureRepository.existsById(2)).isFalse();
+    TransactionSynchronizationManager.getSynchronizations()
+        .forEach(synchronization -> synchronization.beforeCommit(false));
+    assertThat(failureRepository.findById(2).orElseThrow().getReason())
+        .isEqualTo(RecookFailure.DEGRADED);
+  }
+}
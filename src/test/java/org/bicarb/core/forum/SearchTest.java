@@ -21,15 +21,31 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import com.jayway.jsonpath.JsonPath;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
 import org.bicarb.core.BaseSetup;
 import org.bicarb.core.forum.domain.User;
 import org.bicarb.core.forum.repository.PostRepository;
 import org.bicarb.core.forum.repository.TopicRepository;
+import org.bicarb.core.forum.search.AnalyzerWarmer;
+import org.bicarb.core.forum.search.IndexCheckpointRepository;
+import org.bicarb.core.forum.search.PostIndexQueue;
+import org.bicarb.core.forum.search.PostIndexer;
+import org.bicarb.core.forum.search.PostShards;
+import org.bicarb.core.forum.search.RelatedTopicCache;
 import org.bicarb.core.forum.search.SearchService;
+import org.bicarb.core.forum.search.TopicRelationRepository;
+import org.hamcrest.Matchers;
 import org.hamcrest.number.OrderingComparison;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -57,6 +73,20 @@ public class SearchTest extends BaseSetup {
   @Autowired
   private TopicRepository topicRepository;
   @Autowired
+  private IndexCheckpointRepository indexCheckpointRepository;
+  @Autowired
+  private PostIndexQueue postIndexQueue;
+  @Autowired
+  private PostIndexer postIndexer;
+  @Autowired
+  private PostShards postShards;
+  @Autowired
+  private RelatedTopicCache relatedTopicCache;
+  @Autowired
+  private AnalyzerWarmer analyzerWarmer;
+  @Autowired
+  private TopicRelationRepository topicRelationRepository;
+  @Autowired
   private PlatformTransactionManager txManager;
 
   @Test
@@ -72,6 +102,37 @@ public class SearchTest extends BaseSetup {
           .andExpect(status().isOk())
           .andExpect(jsonPath("$.data.length()").value(1)));
 
+      commitTx(() -> mockMvc.perform(get("/api/search?q=结婚&content=false"))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.data.length()").value(1))
+          .andExpect(jsonPath("$.data[0].attributes.cooked").doesNotExist())
+          .andExpect(jsonPath("$.data[0].attributes.highlights[0]")
+              .value(Matchers.containsString("<em>结婚</em>"))));
+
+      // test filters and category facets, category 5 is a descendant of 1
+      commitTx(() -> mockMvc.perform(get("/api/search?q=结婚&category=1"))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.data.length()").value(1))
+          .andExpect(jsonPath("$.meta.facets.categories.5").value(1))
+          .andExpect(jsonPath("$.meta.facets.categories.1").value(1)));
+
+      commitTx(() -> mockMvc.perform(get("/api/search?q=结婚&category=2"))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.data.length()").value(0)));
+
+      commitTx(() -> mockMvc.perform(get("/api/search?q=结婚&from=" + Instant.now().plusSeconds(60)))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.data.length()").value(0)));
+
+      commitTx(() -> mockMvc.perform(get("/api/search?q=结婚&author=-1"))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.data.length()").value(0)));
+
+      commitTx(() -> mockMvc.perform(get("/api/search/suggest?q=新的想"))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.length()").value(1))
+          .andExpect(jsonPath("$[0].title").value("可是那一天，我有了新的想法")));
+
       Integer innerTid = topicRepository.findAll(Sort.by(Order.desc("id"))).get(0).getId();
 
       // test update topic title
@@ -82,6 +143,10 @@ public class SearchTest extends BaseSetup {
           .andExpect(status().isOk())
           .andExpect(jsonPath("$.data.length()").value(0)));
 
+      commitTx(() -> mockMvc.perform(get("/api/search/suggest?q=noth"))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$[0].id").value(innerTid)));
+
       // test delete(soft) topic
       commitTx(() -> mockRequest.patch(mockMvc, "/api/topic/" + innerTid, "{ \"data\": { \"type\": \"topic\", \"id\": \"" + innerTid +"\", \"attributes\": { \"delete\": \"true\" } } }")
           .andExpect(status().isNoContent()));
@@ -90,6 +155,10 @@ public class SearchTest extends BaseSetup {
           .andExpect(status().isOk())
           .andExpect(jsonPath("$.data.length()").value(0)));
 
+      commitTx(() -> mockMvc.perform(get("/api/search/suggest?q=noth"))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.length()").value(0)));
+
       // test restore(soft) topic
       commitTx(() -> mockRequest.patch(mockMvc, "/api/topic/" + innerTid, "{ \"data\": { \"type\": \"topic\", \"id\": \"" + innerTid +"\", \"attributes\": { \"delete\": \"false\" } } }")
           .andExpect(status().isNoContent()));
@@ -124,7 +193,139 @@ public class SearchTest extends BaseSetup {
         .andExpect(status().isOk())
         .andExpect(jsonPath("$.data.length()").value(4))
         .andExpect(jsonPath("$.meta.page.totalRecords").value(4))
-        .andExpect(jsonPath("$.included.length()").value(OrderingComparison.greaterThan(0)));
+        .andExpect(jsonPath("$.data[0].type").value("post"))
+        .andExpect(jsonPath("$.data[0].attributes.cooked").isString())
+        .andExpect(jsonPath("$.data[0].attributes.highlights").isArray())
+        .andExpect(jsonPath("$.data[0].relationships.topic.data.type").value("topic"))
+        .andExpect(jsonPath("$.data[0].relationships.author.data.type").value("user"))
+        .andExpect(jsonPath("$.included.length()").value(OrderingComparison.greaterThan(0)))
+        .andExpect(jsonPath("$.meta.page.totalRelation").value("eq"));
+  }
+
+  @Test
+  void testSearchAfterCursor() throws Exception {
+    String cursor = JsonPath.read(mockMvc.perform(get("/api/search/1/relate?size=2"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.data.length()").value(2))
+        .andReturn().getResponse().getContentAsString(), "$.meta.page.cursor");
+    List<String> firstPage = JsonPath.read(mockMvc.perform(get("/api/search/1/relate?size=2"))
+        .andReturn().getResponse().getContentAsString(), "$.data[*].id");
+
+    mockMvc.perform(get("/api/search/1/relate?size=2&after=" + cursor))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.data.length()").value(2))
+        .andExpect(jsonPath("$.data[0].id").value(Matchers.not(Matchers.isIn(firstPage))))
+        .andExpect(jsonPath("$.data[1].id").value(Matchers.not(Matchers.isIn(firstPage))))
+        .andExpect(jsonPath("$.meta.page.totalRecords").value(4));
+
+    mockMvc.perform(get("/api/search/1/relate?page=1000"))
+        .andExpect(status().isUnprocessableEntity());
+    mockMvc.perform(get("/api/search/1/relate?after=invalid"))
+        .andExpect(status().isUnprocessableEntity());
+  }
+
+  @Test
+  void testSearchCache() throws Exception {
+    mockMvc.perform(get("/api/search/2/relate"))
+        .andExpect(status().isOk());
+    long hits = searchService.getCacheStats().getHits();
+
+    mockMvc.perform(get("/api/search/2/relate"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.data.length()").value(OrderingComparison.greaterThan(0)));
+    mockMvc.perform(get("/api/search/cache"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.hits").value(hits + 1))
+        .andExpect(jsonPath("$.hitRate").value(OrderingComparison.greaterThan(0d)));
+  }
+
+  @Test
+  void testIndexQueue() throws Exception {
+    postIndexQueue.enqueue(Arrays.asList(1, 2, 2));
+    assertThat(postIndexQueue.awaitIdle(Duration.ofSeconds(10))).isTrue();
+
+    mockMvc.perform(get("/api/index/queue"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.enabled").value(true))
+        .andExpect(jsonPath("$.depth").value(0))
+        .andExpect(jsonPath("$.inFlight").value(0))
+        .andExpect(jsonPath("$.indexed").value(OrderingComparison.greaterThanOrEqualTo(2)))
+        .andExpect(jsonPath("$.coalesced").value(OrderingComparison.greaterThanOrEqualTo(1)));
+  }
+
+  @Test
+  void testPostShards() throws Exception {
+    // no shard before the forum exists
+    assertThat(postShards.open(null, Instant.parse("1990-01-01T00:00:00Z"))).isNull();
+    mockMvc.perform(get("/api/search?q=test&to=1990-01-01T00:00:00Z"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.data.length()").value(0))
+        .andExpect(jsonPath("$.meta.page.totalRecords").value(0));
+
+    IndexReader reader = postShards.open(Instant.now().minusSeconds(60), null);
+    try {
+      assertThat(reader).isNotNull();
+    } finally {
+      postShards.close(reader);
+    }
+    postShards.forceMergeClosedShards();
+  }
+
+  @Test
+  void testSearchReady() throws Exception {
+    analyzerWarmer.awaitReady();
+    mockMvc.perform(get("/api/search/ready"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.ready").value(true))
+        .andExpect(jsonPath("$.analyzerMillis.cn").isNumber());
+  }
+
+  @Test
+  void testRelatedTopics() throws Exception {
+    mockMvc.perform(get("/api/search/topic/1/related"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[*].id", Matchers.not(Matchers.hasItem(1))));
+    // requested topics are computed and stored in the background only
+    relatedTopicCache.refreshActiveTopics();
+    assertThat(topicRelationRepository.findById(1)).isPresent();
+    relatedTopicCache.clear();
+    mockMvc.perform(get("/api/search/topic/1/related"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[*].id", Matchers.not(Matchers.hasItem(1))));
+
+    mockMvc.perform(get("/api/search/topic/-1/related"))
+        .andExpect(status().isNotFound());
+  }
+
+  @Test
+  void testIndexTopic() throws Exception {
+    assertThat(postIndexer.indexTopic(1)).isGreaterThan(0);
+    assertThat(countPostsOfTopic(1)).isGreaterThan(0);
+
+    // deleted topic, purge by topic id
+    commitTx(() -> topicRepository.findById(1).ifPresent(topic -> topic.setDelete(true)));
+    try {
+      assertThat(postIndexer.indexTopic(1)).isEqualTo(0);
+      assertThat(countPostsOfTopic(1)).isEqualTo(0);
+    } finally {
+      commitTx(() -> topicRepository.findById(1).ifPresent(topic -> topic.setDelete(false)));
+      postIndexer.indexTopic(1);
+    }
+    // missing topic
+    assertThat(postIndexer.indexTopic(-1)).isEqualTo(0);
+  }
+
+  private int countPostsOfTopic(Integer topicId) throws Exception {
+    IndexReader reader = postShards.open(null, null);
+    if (reader == null) {
+      return 0;
+    }
+    try {
+      return new IndexSearcher(reader)
+          .count(new TermQuery(new Term("topic.id", topicId.toString())));
+    } finally {
+      postShards.close(reader);
+    }
   }
 
   @Test
@@ -143,6 +344,39 @@ public class SearchTest extends BaseSetup {
     ).isEqualTo(1);
   }
 
+  @Test
+  void testIndexingProgress() throws Exception {
+    searchService.safeReBuildIndex().join();
+
+    mockMvc.perform(get("/api/index/progress"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.running").value(false))
+        .andExpect(jsonPath("$.purge").value(false))
+        .andExpect(jsonPath("$.done").value(postRepository.count()))
+        .andExpect(jsonPath("$.total").value(postRepository.count()))
+        .andExpect(jsonPath("$.partitions[0].state").value("DONE"));
+    assertThat(indexCheckpointRepository.count()).isEqualTo(0);
+  }
+
+  @Test
+  void testIncrementalAndResume() throws Exception {
+    assertThat(searchService.incrementalReBuildIndex(Instant.now().plusSeconds(60)).join())
+        .isTrue();
+    mockMvc.perform(get("/api/index/progress"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.total").value(0))
+        .andExpect(jsonPath("$.partitions.length()").value(0));
+
+    assertThat(searchService.incrementalReBuildIndex(Instant.EPOCH).join()).isTrue();
+    mockMvc.perform(get("/api/index/progress"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.done").value(postRepository.count()));
+
+    // nothing to resume
+    assertThat(searchService.resumeReBuildIndex().join()).isTrue();
+    assertThat(indexCheckpointRepository.count()).isEqualTo(0);
+  }
+
   @WithUserDetails
   @Test
   void testNoPermission() throws Exception {
@@ -150,6 +384,14 @@ public class SearchTest extends BaseSetup {
         .andExpect(status().isForbidden());
     mockMvc.perform(get("/api/index/building"))
         .andExpect(status().isForbidden());
+    mockMvc.perform(get("/api/index/progress"))
+        .andExpect(status().isForbidden());
+    mockMvc.perform(get("/api/search/cache"))
+        .andExpect(status().isForbidden());
+    mockMvc.perform(get("/api/index/queue"))
+        .andExpect(status().isForbidden());
+    mockRequest.postForm(mockMvc, "/api/index/resume", "")
+        .andExpect(status().isForbidden());
   }
 
   private void commitTx(Run run) throws Exception {
@@ -164,6 +406,8 @@ public class SearchTest extends BaseSetup {
       throw ex;
     }
     txManager.commit(status);
+    // wait for async indexing
+    assertThat(postIndexQueue.awaitIdle(Duration.ofSeconds(10))).isTrue();
   }
 
   private interface Run {
@@ -17,18 +17,32 @@
 package org.bicarb.core.forum.domain;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import org.bicarb.core.BaseSetup;
 import org.bicarb.core.TimeAssert;
 import org.bicarb.core.forum.domain.Notification.NotificationType;
+import org.bicarb.core.forum.notification.NotificationRetention;
+import org.bicarb.core.forum.notification.UnreadCounter;
 import org.bicarb.core.forum.repository.NotificationRepository;
+import org.bicarb.core.forum.service.PostService;
+import org.bicarb.core.forum.service.UsernameDirectory;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.test.context.support.WithAnonymousUser;
 import org.springframework.security.test.context.support.WithUserDetails;
 
 /**
@@ -41,6 +55,16 @@ class NotificationTest extends BaseSetup {
 
   @Autowired
   private NotificationRepository notificationRepository;
+  @Autowired
+  private UsernameDirectory usernameDirectory;
+  @Autowired
+  private PostService postService;
+  @Autowired
+  private UnreadCounter unreadCounter;
+  @Autowired
+  private NotificationRetention notificationRetention;
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
 
   @Test
   void testCreate() throws Exception {
@@ -70,6 +94,68 @@ class NotificationTest extends BaseSetup {
 
     Notification n = notificationRepository.getOne(1);
     assertThat(n.getReadAt()).isEqualTo("2017-12-31T23:59:59.999999999Z");
+
+    mockMvc.perform(get("/api/notification/unread").accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.unread").value(0));
+  }
+
+  @Test
+  void testUnread() throws Exception {
+    mockMvc.perform(get("/api/notification/unread").accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.unread").value(1));
+  }
+
+  @Test
+  void testStreamResume() throws Exception {
+    mockMvc.perform(get("/api/notification/stream").param("lastId", "0")
+        .accept(MediaType.TEXT_EVENT_STREAM))
+        .andExpect(request().asyncStarted())
+        .andExpect(content().string(containsString("id:1\n")))
+        .andExpect(content().string(containsString("event:notification\n")));
+  }
+
+  @Test
+  void testStreamResumeOutOfOrder() throws Exception {
+    // a lower id committed later, e.g. allocated by another node
+    jdbcTemplate.update("insert into notifications (id, create_at, type, post_id, send_id, to_id,"
+        + " topic_id) values (0, now(), 'REPLY', 1, 1, 5, 1)");
+
+    mockMvc.perform(get("/api/notification/stream").param("lastId", "1")
+        .accept(MediaType.TEXT_EVENT_STREAM))
+        .andExpect(request().asyncStarted())
+        .andExpect(content().string(containsString("id:0\n")))
+        .andExpect(content().string(not(containsString("id:1\n"))));
+  }
+
+  @WithAnonymousUser
+  @Test
+  void testStreamAnonymous() throws Exception {
+    mockMvc.perform(get("/api/notification/stream").accept(MediaType.TEXT_EVENT_STREAM))
+        .andExpect(status().isUnauthorized());
+  }
+
+  @Test
+  void testMarkAllRead() throws Exception {
+    mockRequest.patchNoBody(mockMvc, "/api/notification/read?upToId=0")
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.marked").value(0));
+
+    mockRequest.patchNoBody(mockMvc, "/api/notification/read")
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.marked").value(1));
+
+    assertThat(notificationRepository.getOne(1).getReadAt()).isNotNull();
+    assertThat(unreadCounter.get(5)).isEqualTo(0);
+  }
+
+  @Test
+  void testRetentionKeepsRecent() {
+    notificationRetention.run();
+
+    assertThat(notificationRepository.count()).isEqualTo(1);
+    assertThat(unreadCounter.get(5)).isEqualTo(1);
   }
 
   @Test
@@ -132,4 +218,34 @@ class NotificationTest extends BaseSetup {
     assertThat(n.getTopic().getId()).isEqualTo(1);
     TimeAssert.assertNow(n.getCreateAt());
   }
+
+  @WithUserDetails
+  @Test
+  void testMentionsBatch() throws Exception {
+    mockRequest.post(mockMvc, "/api/post", jsonBody.getJson("/post/postMentions.json"))
+        .andExpect(status().isCreated());
+
+    List<Notification> ns = notificationRepository.findAll(Sort.by("id"));
+    assertThat(ns.size()).isEqualTo(3);
+    assertThat(unreadCounter.get(3)).isEqualTo(1);
+    assertThat(unreadCounter.get(4)).isEqualTo(1);
+    assertThat(ns.subList(1, 3)).allMatch(n -> n.getType() == NotificationType.MENTION);
+    assertThat(ns.get(1).getTo().getId()).isEqualTo(3);
+    assertThat(ns.get(2).getTo().getId()).isEqualTo(4);
+    assertThat(ns.get(2).getPost().getId()).isEqualTo(ns.get(1).getPost().getId());
+    TimeAssert.assertNow(ns.get(2).getCreateAt());
+  }
+
+  @Test
+  void testResolveMentions() {
+    Map<String, Integer> resolved = usernameDirectory
+        .resolve(Arrays.asList("ADMIN", "Bob", "nobody", "bob"));
+    assertThat(resolved).containsOnlyKeys("admin", "bob");
+    assertThat(resolved.get("admin")).isEqualTo(3);
+    assertThat(resolved.get("bob")).isEqualTo(4);
+
+    assertThat(postService.linkMentions("<p>@Admin @nobody </p>"))
+        .contains("href=\"/user/Admin\"")
+        .doesNotContain("/user/nobody");
+  }
 }
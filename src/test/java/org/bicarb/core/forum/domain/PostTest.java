@@ -17,19 +17,35 @@
 package org.bicarb.core.forum.domain;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.bicarb.core.BaseSetup;
+import org.bicarb.core.MockRequest;
 import org.bicarb.core.TimeAssert;
 import org.bicarb.core.forum.repository.PostRepository;
 import org.bicarb.core.forum.repository.TopicRepository;
+import org.bicarb.core.system.security.BicarbUserDetailsService;
 import org.hamcrest.collection.IsIn;
 import org.hamcrest.core.IsNull;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.test.context.support.WithUserDetails;
 import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
 /**
  * User: create, select, update(delete, edit)
@@ -42,6 +58,8 @@ class PostTest extends BaseSetup {
   private PostRepository postRepository;
   @Autowired
   private TopicRepository topicRepository;
+  @Autowired
+  private BicarbUserDetailsService userDetailsService;
 
   @WithUserDetails("alice")
   @Test
@@ -63,6 +81,43 @@ class PostTest extends BaseSetup {
     assertThat(postRepository.findAll().size()).isEqualTo(6);
   }
 
+  @Test
+  void testCreateConcurrently() throws Exception {
+    int replies = 40;
+    UserDetails alice = userDetailsService.loadUserByUsername("alice");
+    String body = jsonBody.getJson("/post/post.json");
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Integer>> statuses = new ArrayList<>();
+    for (int i = 0; i < replies; i++) {
+      statuses.add(executor.submit(() -> {
+        start.await();
+        return mockMvc.perform(MockMvcRequestBuilders.post("/api/post")
+            .with(user(alice))
+            .with(csrf().asHeader())
+            .accept(MockRequest.JSON_API_RESPONSE)
+            .contentType(MockRequest.JSON_API_CONTENT_TYPE)
+            .content(body))
+            .andReturn().getResponse().getStatus();
+      }));
+    }
+    start.countDown();
+    for (Future<Integer> status : statuses) {
+      assertThat(status.get(1, TimeUnit.MINUTES)).isEqualTo(HttpStatus.CREATED.value());
+    }
+    executor.shutdown();
+
+    // no collision and no gap
+    List<Integer> indexes = postRepository.findAll().stream()
+        .filter(p -> p.getTopic().getId().equals(1))
+        .map(Post::getIndex)
+        .sorted()
+        .collect(Collectors.toList());
+    assertThat(indexes).containsExactlyElementsOf(
+        IntStream.rangeClosed(0, 4 + replies).boxed().collect(Collectors.toList()));
+    assertThat(topicRepository.getOne(1).getPostIndex()).isEqualTo(4 + replies);
+  }
+
   @Sql(statements = "update posts set delete = true, delete_by_id = '3' where id = '1';")
   @Test
   void testReadDeleteByOther() throws Exception {